@@ -0,0 +1,60 @@
+package com.sn.solr.plugin.rank.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.util.NamedList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sn.solr.plugin.common.Pair;
+import com.sn.solr.plugin.common.SolrHelper;
+
+/**
+ * JMH benchmark of {@link SolrHelper#createPairList(NamedList, SolrQuery.ORDER)}
+ * over the same synthetic counts as {@link RankEngineBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class PairListBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	public int distinct;
+
+	@Param({"UNIQUE", "TIES"})
+	public RankEngineBenchmark.Shape shape;
+
+	@Param({"asc", "desc"})
+	public SolrQuery.ORDER order;
+
+	private NamedList<Number> facetCounts;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		int[] counts = RankEngineBenchmark.createCounts(distinct, shape);
+		facetCounts = new NamedList<Number>();
+		for (int i = 0; i < distinct; i++) {
+			facetCounts.add(String.format("%010d", i), counts[i]);
+		}
+	}
+
+	@Benchmark
+	public List<Pair<String, Number>> createPairList() {
+		return SolrHelper.createPairList(facetCounts, order);
+	}
+}
@@ -0,0 +1,198 @@
+package com.sn.solr.plugin.rank.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.CoreDescriptor;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.response.SolrQueryResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sn.solr.plugin.comp.RankComponent;
+
+/**
+ * End to end JMH benchmark of a rank request against an embedded Solr core
+ * with {@link RankComponent} configured, reporting latency percentiles (p50,
+ * p99, ...) per strategy, page depth & filter selectivity. Runs offline, the
+ * core is started from the bench-solr home on the test classpath.
+ *
+ * <p>
+ * Synthetic indexes are generated with the requested document count, rank
+ * field cardinality & tie skew, & kept under target/bench-index so they are
+ * built only once per shape. Rank values are drawn as
+ * cardinality * random^skew, a skew of 1 is uniform, higher skews pile the
+ * documents up on the top values. The BUCKET field is uniform over 0-99 & a
+ * selectivity of n percent filters on the first n buckets.
+ *
+ * <pre>
+ * mvn -Pbench test-compile exec:exec -Djmh.args="RankComponentBenchmark"
+ * mvn -Pbench test-compile exec:exec -Djmh.args="RankComponentBenchmark -p strategy=dense -p start=0,100000 -p qt=/rank,/query"
+ * </pre>
+ *
+ * The /query handler runs the same search without the rank component, the
+ * difference is the cost of ranking. rankCache=true uses a core with the
+ * rank cache configured. jump=true requests the page with sn.rank.jump set
+ * to start + 1 in place of start, the same page for ordinal ranking.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class RankComponentBenchmark {
+
+	private static final String SOLR_HOME = "/bench-solr/solr.xml";
+
+	private static final File INDEX_DIR = new File(System.getProperty("bench.index.dir", "target/bench-index"));
+
+	private static final int ROWS = 10;
+
+	@Param({"1100000"})
+	public int docs;
+
+	@Param({"1000", "100000"})
+	public int cardinality;
+
+	@Param({"1", "4"})
+	public double skew;
+
+	@Param({"TSCORE"})
+	public String rankField;
+
+	@Param({"ordinal", "dense", "standard", "modified", "fractional", "legacyDense"})
+	public String strategy;
+
+	@Param({"facet"})
+	public String method;
+
+	@Param({"0", "1000", "100000", "1000000"})
+	public int start;
+
+	@Param({"100", "10", "1"})
+	public int selectivity;
+
+	@Param({"/rank"})
+	public String qt;
+
+	@Param({"false"})
+	public boolean rankCache;
+
+	@Param({"false"})
+	public boolean jump;
+
+	private CoreContainer container;
+
+	private SolrCore core;
+
+	private SolrRequestHandler handler;
+
+	private ModifiableSolrParams params;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		File dataDir = new File(INDEX_DIR, docs + "-" + cardinality + "-" + skew);
+		System.setProperty("bench.data.dir", dataDir.getAbsolutePath());
+		File home = new File(getClass().getResource(SOLR_HOME).toURI()).getParentFile();
+		container = new CoreContainer(home.getAbsolutePath());
+		CoreDescriptor descriptor = new CoreDescriptor(container, "bench", home.getAbsolutePath());
+		descriptor.setConfigName(rankCache ? "solrconfig-rankcache.xml" : "solrconfig.xml");
+		core = container.create(descriptor);
+		container.register("bench", core, false);
+		if (!new File(dataDir, "complete").exists()) {
+			generateIndex(new EmbeddedSolrServer(container, "bench"));
+			new File(dataDir, "complete").createNewFile();
+		}
+		handler = core.getRequestHandler(qt);
+		params = new ModifiableSolrParams();
+		params.set(CommonParams.Q, "*:*");
+		if (selectivity < 100) {
+			params.set(CommonParams.FQ, "BUCKET:[0 TO " + (selectivity - 1) + "]");
+		}
+		params.set(CommonParams.SORT, rankField + " asc,ID asc");
+		if (jump) {
+			params.set(RankComponent.PARAM_RANK_JUMP, start + 1);
+		} else {
+			params.set(CommonParams.START, start);
+		}
+		params.set(CommonParams.ROWS, ROWS);
+		params.set(CommonParams.FL, "ID," + rankField);
+		params.set(RankComponent.PARAM_RANK_STRATEGY, strategy);
+		params.set(RankComponent.PARAM_RANK_FIELD, rankField);
+		params.set(RankComponent.PARAM_RANK_METHOD, method);
+	}
+
+	/**
+	 * Indexes the synthetic documents in several commits, so the index has
+	 * more than one segment like a live index.
+	 */
+	private void generateIndex(EmbeddedSolrServer server) throws Exception {
+		server.deleteByQuery("*:*");
+		Random random = new Random(42);
+		List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>();
+		for (int i = 0; i < docs; i++) {
+			int score = (int) (cardinality * Math.pow(random.nextDouble(), skew));
+			SolrInputDocument doc = new SolrInputDocument();
+			doc.addField("ID", String.format("D%09d", i));
+			doc.addField("TSCORE", score);
+			doc.addField("SCORE", String.format("%09d", score));
+			doc.addField("BUCKET", random.nextInt(100));
+			batch.add(doc);
+			if (batch.size() == 10000) {
+				server.add(batch);
+				batch.clear();
+			}
+			if ((i + 1) % (docs / 8 + 1) == 0) {
+				server.commit();
+			}
+		}
+		if (!batch.isEmpty()) {
+			server.add(batch);
+		}
+		server.commit();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		container.shutdown();
+	}
+
+	@Benchmark
+	public SolrQueryResponse request() throws Exception {
+		SolrQueryRequest req = new LocalSolrQueryRequest(core, params);
+		SolrQueryResponse rsp = new SolrQueryResponse();
+		try {
+			core.execute(handler, req, rsp);
+		} finally {
+			req.close();
+		}
+		if (rsp.getException() != null) {
+			throw new IOException("Rank request failed", rsp.getException());
+		}
+		return rsp;
+	}
+}
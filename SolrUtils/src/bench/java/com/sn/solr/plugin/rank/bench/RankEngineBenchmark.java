@@ -0,0 +1,152 @@
+package com.sn.solr.plugin.rank.bench;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.schema.StrField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sn.solr.plugin.common.Pair;
+import com.sn.solr.plugin.common.SolrHelper;
+import com.sn.solr.plugin.rank.RankEngine;
+import com.sn.solr.plugin.rank.RankStrategy;
+import com.sn.solr.plugin.rank.RankTable;
+
+/**
+ * JMH benchmarks of the {@link RankEngine} strategies over synthetic rank
+ * field counts. Run with the bench profile, allocation rates are
+ * reported by the gc profiler passed in jmh.args:
+ *
+ * <pre>
+ * mvn -Pbench test-compile exec:exec
+ * mvn -Pbench test-compile exec:exec -Djmh.args="RankEngineBenchmark.table -p distinct=1000000 -prof gc"
+ * </pre>
+ *
+ * {@link RankStrategy#LEGACY_DENSE} reads the values of the sorted documents
+ * from the index & is not covered here.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class RankEngineBenchmark {
+
+	/**
+	 * Shape of the counts, every value unique or heavy ties where a few values
+	 * hold most of the documents.
+	 */
+	public enum Shape { UNIQUE, TIES }
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	public int distinct;
+
+	@Param({"UNIQUE", "TIES"})
+	public Shape shape;
+
+	@Param({"dense", "standard", "modified", "fractional", "ordinal"})
+	public String strategy;
+
+	private RankStrategy rankStrategy;
+
+	private int[] counts;
+
+	private List<Pair<String, Number>> pairList;
+
+	private RankTable table;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		rankStrategy = RankStrategy.getByKey(strategy);
+		counts = createCounts(distinct, shape);
+		NamedList<Number> facetCounts = new NamedList<Number>();
+		String[] terms = new String[distinct];
+		for (int i = 0; i < distinct; i++) {
+			terms[i] = String.format("%010d", i);
+			facetCounts.add(terms[i], counts[i]);
+		}
+		pairList = SolrHelper.createPairList(facetCounts, SolrQuery.ORDER.asc);
+		table = RankTable.create(terms, counts, new StrField(), SolrQuery.ORDER.asc);
+	}
+
+	/**
+	 * Unique counts are all 1, tied counts follow a power law so the top values
+	 * are shared by thousands of documents & the tail by a few.
+	 */
+	public static int[] createCounts(int distinct, Shape shape) {
+		int[] counts = new int[distinct];
+		Random random = new Random(42);
+		for (int i = 0; i < distinct; i++) {
+			counts[i] = shape == Shape.UNIQUE ? 1 : 1 + (int) (10000 * Math.pow(random.nextDouble(), 8));
+		}
+		return counts;
+	}
+
+	/**
+	 * Ranks every value through the {@link Pair} list & rank map API.
+	 */
+	@Benchmark
+	public Map<String, Number> facetBased() {
+		if (rankStrategy.equals(RankStrategy.ORDINAL)) {
+			return RankEngine.computeOrdinalBasedRank(pairList, 0);
+		}
+		return RankEngine.computeFacetBasedRank(pairList, rankStrategy);
+	}
+
+	/**
+	 * Ranks every value through the primitive array API.
+	 */
+	@Benchmark
+	public Object primitive() {
+		switch (rankStrategy) {
+			case DENSE:
+				int[] denseRanks = new int[counts.length];
+				RankEngine.computeDenseRank(counts, denseRanks);
+				return denseRanks;
+			case STANDARD:
+				int[] standardRanks = new int[counts.length];
+				RankEngine.computeStandardRank(counts, standardRanks);
+				return standardRanks;
+			case MODIFIED:
+				int[] modifiedRanks = new int[counts.length];
+				RankEngine.computeModifiedRank(counts, modifiedRanks);
+				return modifiedRanks;
+			case FRACTIONAL:
+				float[] fractionalRanks = new float[counts.length];
+				RankEngine.computeFractionalRank(counts, fractionalRanks);
+				return fractionalRanks;
+			default:
+				long[] ordinalRanks = new long[counts.length];
+				RankEngine.computeOrdinalRank(0, ordinalRanks);
+				return ordinalRanks;
+		}
+	}
+
+	/**
+	 * Reads the rank of every value from the cumulative counts of a
+	 * {@link RankTable}, as the component does for each document of a page.
+	 */
+	@Benchmark
+	public void table(Blackhole blackhole) {
+		for (int pos = 0; pos < table.size(); pos++) {
+			blackhole.consume(RankEngine.computeRank(table, pos, rankStrategy));
+		}
+	}
+}
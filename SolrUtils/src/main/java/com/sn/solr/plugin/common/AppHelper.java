@@ -28,10 +28,18 @@ import java.text.DecimalFormat;
  */
 public class AppHelper{
 	
-	static final DecimalFormat NUMBER_FORMAT = new DecimalFormat("##.####");
+	/**
+	 * {@link DecimalFormat} is not thread safe, each thread gets its own.
+	 */
+	static final ThreadLocal<DecimalFormat> NUMBER_FORMAT = new ThreadLocal<DecimalFormat>() {
+		@Override
+		protected DecimalFormat initialValue() {
+			return new DecimalFormat("##.####");
+		}
+	};
 	
 	public static String getDiffTime(long startTime){
-		return NUMBER_FORMAT.format((System.nanoTime()-startTime) * 0.000001) + " ms";
+		return NUMBER_FORMAT.get().format((System.nanoTime()-startTime) * 0.000001) + " ms";
 	}
 	
 	public static boolean isInteger(String str) {
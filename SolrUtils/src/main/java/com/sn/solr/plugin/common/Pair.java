@@ -45,15 +45,18 @@ public class Pair<K, V> {
 		return "K: " + k + "	V: " + v;
 	}
 	
-	@SuppressWarnings("unchecked")
 	public boolean equals(Object o) {
         if (o instanceof Pair) {
-                Pair p = (Pair) o;
+                Pair<?, ?> p = (Pair<?, ?>) o;
                 return  (( this.k == p.k || ( this.k != null && p.k != null && this.k.equals(p.k))) &&
                  ( this.v == p.v || ( this.v != null && p.v != null && this.v.equals(p.v))) );
         }
 
         return false;
     }
+	
+	public int hashCode() {
+		return 31 * (k == null ? 0 : k.hashCode()) + (v == null ? 0 : v.hashCode());
+	}
 
 }
\ No newline at end of file
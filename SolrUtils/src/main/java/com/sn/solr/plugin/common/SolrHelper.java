@@ -17,26 +17,62 @@ package com.sn.solr.plugin.common;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Fieldable;
 import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.FacetParams;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.SimpleFacets;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.UnInvertedField;
 import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.schema.ByteField;
+import org.apache.solr.schema.DateField;
+import org.apache.solr.schema.DoubleField;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.FloatField;
 import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.IntField;
+import org.apache.solr.schema.LongField;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.ShortField;
+import org.apache.solr.schema.TrieField;
 import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocList;
+import org.apache.solr.search.DocSet;
 import org.apache.solr.search.DocSlice;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.WrappedQuery;
+
+import com.sn.solr.plugin.rank.RankSketch;
+import com.sn.solr.plugin.rank.RankSketchKey;
+import com.sn.solr.plugin.rank.RankTable;
+import com.sn.solr.plugin.rank.RankTableKey;
+import com.sn.solr.plugin.rank.SegmentHistogram;
 
 /**
  * <code>SolrHelper</code> class provides bunch of methods that help with 
@@ -58,6 +94,10 @@ public class SolrHelper {
 	public static final String FACET_CNT_TAG = "facet_counts";
 
 	public static final String FACET_FIELD_TAG = "facet_fields";
+	
+	public static final String RANK_CACHE = "rankCache";
+	
+	private static final String RETURN_FIELDS_CONTEXT_KEY = SolrHelper.class.getName() + ".returnFields.";
 
 	/**
 	 * Util method to extract the Facet response from Solr Query Response for a 
@@ -97,17 +137,45 @@ public class SolrHelper {
 	 * @throws IOException
 	 */
 	public static SolrDocumentList getSolrDocList(SolrQueryRequest req, SolrQueryResponse res) throws CorruptIndexException, IOException{
+		return getSolrDocList(req, res, new String[0]);
+	}
+	
+	/**
+	 * Constructs {@link SolrDocumentList} from the current {@link SolrQueryRequest}
+	 * and {@link SolrQueryResponse}. Only the fields requested by fl & the 
+	 * passed required fields are loaded, documents are read through 
+	 * {@link SolrIndexSearcher#doc(int, Set)} so the document cache is used. 
+	 * Values are returned in their readable form. Required fields that are 
+	 * not requested by fl are removed with {@link #removeRequiredFields(SolrDocumentList, SolrQueryRequest, String...)}
+	 * once the caller is done with them.
+	 * 
+	 * @param req {@link SolrQueryRequest}
+	 * @param res {@link SolrQueryResponse}
+	 * @param requiredFields Fields needed by the caller in addition to fl.
+	 * @return
+	 * @throws CorruptIndexException
+	 * @throws IOException
+	 */
+	public static SolrDocumentList getSolrDocList(SolrQueryRequest req, SolrQueryResponse res, String... requiredFields) throws CorruptIndexException, IOException{
 		DocSlice slice = (DocSlice) res.getValues().get(RESP_EL_TAG);
-		Set<String> returnFields = SolrHelper.getReturnFields(req);
+		SolrIndexSearcher searcher = req.getSearcher();
+		IndexSchema schema = req.getSchema();
+		Set<String> loadFields = new HashSet<String>(SolrHelper.getReturnFields(req));
+		for (String f : requiredFields) {
+			if (f != null) {
+				loadFields.add(f);
+			}
+		}
 		SolrDocumentList docList = new SolrDocumentList();
 		for (DocIterator it = slice.iterator(); it.hasNext();) {
 			int docId = it.nextDoc();
-			Document doc = req.getSearcher().getReader().document(docId);
+			Document doc = searcher.doc(docId, loadFields);
 			SolrDocument sdoc = new SolrDocument();
 			for (Fieldable f : doc.getFields()) {
 				String fn = f.name();
-				if (returnFields.contains(fn)) {
-					sdoc.addField(fn, doc.get(fn));
+				if (loadFields.contains(fn)) {
+					SchemaField sf = schema.getFieldOrNull(fn);
+					sdoc.addField(fn, sf == null ? f.stringValue() : sf.getType().toExternal(f));
 				}
 			}
 			docList.add(sdoc);
@@ -119,19 +187,50 @@ public class SolrHelper {
 	}
 	
 	/**
-	 * Util method to return a list of fields. 
+	 * Removes the fields loaded by {@link #getSolrDocList(SolrQueryRequest, SolrQueryResponse, String...)}
+	 * for the caller only, so documents hold no other fields than fl asks for.
 	 * 
+	 * @param docList {@link SolrDocumentList} to remove the fields from.
 	 * @param req {@link SolrQueryRequest}
-	 * @return {@link Set} Returns set of {@link String} field names.
+	 * @param requiredFields Fields passed to getSolrDocList in addition to fl.
 	 */
+	public static void removeRequiredFields(SolrDocumentList docList, SolrQueryRequest req, String... requiredFields) {
+		Set<String> returnFields = getReturnFields(req);
+		for (String f : requiredFields) {
+			if (f != null && !returnFields.contains(f)) {
+				for (SolrDocument d : docList) {
+					d.removeFields(f);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Util method to return a list of fields. The resolved set is kept in the
+	 * context of the request, so * is expanded to the stored fields of the 
+	 * schema only once per request.
+	 * 
+	 * @param req {@link SolrQueryRequest}
+	 * @return {@link Set} Returns unmodifiable set of {@link String} field names.
+	 */
+	@SuppressWarnings("unchecked")
 	public static Set<String> getReturnFields(SolrQueryRequest req) {
-		Set<String> fields = new HashSet<String>();
 		String fl = req.getParams().get(CommonParams.FL);
 		if (fl == null || fl.equals("")) {
-			return fields;
+			return Collections.emptySet();
+		}
+		Map<Object, Object> context = req.getContext();
+		Set<String> fields = (Set<String>) context.get(RETURN_FIELDS_CONTEXT_KEY + fl);
+		if (fields == null) {
+			fields = Collections.unmodifiableSet(resolveReturnFields(req.getSchema(), fl));
+			context.put(RETURN_FIELDS_CONTEXT_KEY + fl, fields);
 		}
+		return fields;
+	}
+	
+	private static Set<String> resolveReturnFields(IndexSchema schema, String fl) {
+		Set<String> fields = new HashSet<String>();
 		String[] fls = fl.split(",");
-		IndexSchema schema = req.getSchema();
 		for (String f : fls) {
 			if ("*".equals(f)) {
 				Map<String, SchemaField> fm = schema.getFields();
@@ -187,4 +286,473 @@ public class SolrHelper {
 		}
 		return pairList;
 	}
-}
+
+	/**
+	 * Returns the first value of the passed field for each document in the 
+	 * {@link SolrDocumentList}, in document order.
+	 * 
+	 * @param list {@link SolrDocumentList} to read values from.
+	 * @param fieldName {@link String} field identifier string
+	 */
+	public static List<String> getFieldValues(SolrDocumentList list, String fieldName) {
+		List<String> values = new ArrayList<String>();
+		if (list != null) {
+			for (SolrDocument doc : list) {
+				values.add((String) doc.getFirstValue(fieldName));
+			}
+		}
+		return values;
+	}
+	
+	/**
+	 * Converts a field value as returned in a {@link SolrDocument}, for example
+	 * one received from a shard, to the readable form used by 
+	 * {@link FieldType#toExternal(org.apache.lucene.document.Fieldable)}.
+	 * 
+	 * @param fieldType {@link FieldType} of the field.
+	 * @param value Field value, may be null.
+	 */
+	public static String toReadableValue(FieldType fieldType, Object value) {
+		if (value == null) {
+			return null;
+		}
+		if (value instanceof Date && fieldType instanceof DateField) {
+			return ((DateField) fieldType).toExternal((Date) value);
+		}
+		return value.toString();
+	}
+	
+	/**
+	 * Counts the documents of the {@link DocSet} that have the passed indexed 
+	 * term & come before the passed document in the passed sort, index order 
+	 * if the sort is null. The tied documents are sorted without going through
+	 * the caches of the searcher.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param docs {@link DocSet} of documents to be counted.
+	 * @param fieldName {@link String} field identifier string
+	 * @param term Indexed term of the field.
+	 * @param ties Number of documents of the set having the term.
+	 * @param doc Document to count up to, exclusive.
+	 * @param sort {@link Sort} of the request, null for index order.
+	 * @throws IOException
+	 */
+	public static int countDocsBefore(SolrIndexSearcher searcher, DocSet docs, String fieldName, String term, int ties, int doc, Sort sort) throws IOException {
+		if (sort == null) {
+			return countDocsBefore(searcher, docs, fieldName, term, doc);
+		}
+		WrappedQuery tied = new WrappedQuery(new TermQuery(new Term(fieldName, term)));
+		tied.setCache(false);
+		DocIterator it = searcher.getDocList(tied, docs, sort, 0, ties).iterator();
+		int count = 0;
+		while (it.hasNext() && it.nextDoc() != doc) {
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Counts the documents of the {@link DocSet} that have the passed indexed 
+	 * term & come before the passed document in index order.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param docs {@link DocSet} of documents to be counted.
+	 * @param fieldName {@link String} field identifier string
+	 * @param term Indexed term of the field.
+	 * @param doc Document to count up to, exclusive.
+	 * @throws IOException
+	 */
+	public static int countDocsBefore(SolrIndexSearcher searcher, DocSet docs, String fieldName, String term, int doc) throws IOException {
+		int count = 0;
+		TermDocs termDocs = searcher.getReader().termDocs(new Term(fieldName, term));
+		try {
+			while (termDocs.next() && termDocs.doc() < doc) {
+				if (docs.exists(termDocs.doc())) {
+					count++;
+				}
+			}
+		} finally {
+			termDocs.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the documents at the passed rows of the ranked documents without
+	 * collecting the rows before them. The values holding the first & last row
+	 * are looked up in the {@link RankTable} & only the documents within that
+	 * range of rank values are searched, skipping the documents of the first
+	 * value that come before the first row. Rows are clipped to the documents
+	 * of the table. The range is only valid for the request & is not added to
+	 * the filter cache.
+	 *
+	 * @param searcher {@link SolrIndexSearcher} to search with.
+	 * @param query Query of the request.
+	 * @param docs {@link DocSet} matching the query & filters of the request.
+	 * @param sort Sort of the request, sorting on the rank field first.
+	 * @param rankField {@link String} rank field identifier string
+	 * @param rankTable {@link RankTable} of the passed documents in sort order.
+	 * @param first First row, zero based.
+	 * @param last Last row, inclusive.
+	 * @throws IOException
+	 */
+	public static DocList getRankedDocs(SolrIndexSearcher searcher, Query query, DocSet docs, Sort sort, String rankField, RankTable rankTable,
+			int first, int last) throws IOException {
+		first = Math.max(first, 0);
+		last = Math.min(last, rankTable.getNumDocs() - 1);
+		if (first > last) {
+			return new DocSlice(0, 0, new int[0], null, 0, 0f);
+		}
+		int firstPos = rankTable.indexAt(first);
+		int lastPos = rankTable.indexAt(last);
+		boolean desc = rankTable.getOrder().equals(SolrQuery.ORDER.desc);
+		SchemaField sf = searcher.getSchema().getField(rankField);
+		Query range = sf.getType().getRangeQuery(null, sf, rankTable.getValue(desc ? lastPos : firstPos),
+				rankTable.getValue(desc ? firstPos : lastPos), true, true);
+		WrappedQuery uncached = new WrappedQuery(range);
+		uncached.setCache(false);
+		DocSet rangeDocs = searcher.getDocSet(uncached, docs);
+		return searcher.getDocList(query, rangeDocs, sort, first - rankTable.getBetter(firstPos), last - first + 1);
+	}
+
+	/**
+	 * Returns the documents of the passed {@link DocSet} that come after the 
+	 * passed rank value & id in the order of a sort on the rank field then the
+	 * id field, the documents having a rank value if the value is null. The 
+	 * range is only valid for the request & is not added to the filter cache.
+	 *
+	 * @param searcher {@link SolrIndexSearcher} to search with.
+	 * @param docs {@link DocSet} matching the query & filters of the request.
+	 * @param sort Sort of the request, sorting on the rank field then the id field.
+	 * @param rankField {@link String} rank field identifier string
+	 * @param value Readable rank value of the last document, null for none.
+	 * @param idField {@link String} id field identifier string
+	 * @param id Readable id of the last document.
+	 * @throws IOException
+	 */
+	public static DocSet getDocsAfter(SolrIndexSearcher searcher, DocSet docs, Sort sort, String rankField, String value, 
+			String idField, String id) throws IOException {
+		SchemaField rankSf = searcher.getSchema().getField(rankField);
+		FieldType rankType = rankSf.getType();
+		SortField[] sortFields = sort.getSort();
+		Query after;
+		if (value == null) {
+			after = rankType.getRangeQuery(null, rankSf, null, null, true, true);
+		} else {
+			SchemaField idSf = searcher.getSchema().getField(idField);
+			boolean desc = sortFields[0].getReverse();
+			BooleanQuery ties = new BooleanQuery();
+			ties.add(rankType.getRangeQuery(null, rankSf, value, value, true, true), BooleanClause.Occur.MUST);
+			ties.add(sortFields[1].getReverse() ? idSf.getType().getRangeQuery(null, idSf, null, id, true, false)
+					: idSf.getType().getRangeQuery(null, idSf, id, null, false, true), BooleanClause.Occur.MUST);
+			BooleanQuery bq = new BooleanQuery();
+			bq.add(desc ? rankType.getRangeQuery(null, rankSf, null, value, true, false) 
+					: rankType.getRangeQuery(null, rankSf, value, null, false, true), BooleanClause.Occur.SHOULD);
+			bq.add(ties, BooleanClause.Occur.SHOULD);
+			after = bq;
+		}
+		WrappedQuery uncached = new WrappedQuery(after);
+		uncached.setCache(false);
+		return searcher.getDocSet(uncached, docs);
+	}
+
+	/**
+	 * Counts the documents per value of a field over the passed {@link DocSet}
+	 * the same way facet.method=fc would, without going through the request 
+	 * & response. Counts are returned in index order & only values with a non 
+	 * zero count are included.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param docs {@link DocSet} of documents to be counted.
+	 * @param fieldName {@link String} field identifier string
+	 * @return {@link NamedList} of readable value & count.
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public static NamedList<Number> getFieldCounts(SolrIndexSearcher searcher, DocSet docs, String fieldName) throws IOException {
+		SchemaField sf = searcher.getSchema().getField(fieldName);
+		// Trie fields index several precision terms per value, only UnInvertedField
+		// restricts counting to the full precision terms. Same as SimpleFacets.
+		if (sf.multiValued() || sf.getType().multiValuedFieldCache() || TrieField.getMainValuePrefix(sf.getType()) != null) {
+			UnInvertedField uif = UnInvertedField.getUnInvertedField(fieldName, searcher);
+			return uif.getCounts(searcher, docs, 0, -1, 1, false, FacetParams.FACET_SORT_INDEX, null);
+		}
+		return SimpleFacets.getFieldCacheCounts(searcher, docs, fieldName, 0, -1, 1, false, FacetParams.FACET_SORT_INDEX, null);
+	}
+	
+	/**
+	 * Builds a {@link RankTable} for the passed {@link RankTableKey} by 
+	 * resolving the documents matched by the query & filters of the key on 
+	 * the given searcher.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param key {@link RankTableKey} identifying the table.
+	 * @throws IOException
+	 */
+	public static RankTable createRankTable(SolrIndexSearcher searcher, RankTableKey key) throws IOException {
+		return createRankTable(searcher, key, null);
+	}
+	
+	/**
+	 * Builds a {@link RankTable} for the passed {@link RankTableKey} on the 
+	 * given searcher, reusing the segment histograms of the passed table for
+	 * segments the searcher still holds.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param key {@link RankTableKey} identifying the table.
+	 * @param previous {@link RankTable} of the key on the previous searcher, 
+	 * null if none.
+	 * @throws IOException
+	 */
+	public static RankTable createRankTable(SolrIndexSearcher searcher, RankTableKey key, RankTable previous) throws IOException {
+		List<Query> queries = new ArrayList<Query>(key.getFilters());
+		if (key.getQuery() != null) {
+			queries.add(key.getQuery());
+		}
+		return createRankTable(searcher, key, searcher.getDocSet(queries), previous, null);
+	}
+	
+	/**
+	 * Builds a {@link RankTable} for the passed {@link RankTableKey} from the 
+	 * passed {@link DocSet}. Single valued rank fields are counted per segment
+	 * through {@link SegmentHistogram}, so segments already counted for the 
+	 * previous table are not counted again.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param key {@link RankTableKey} identifying the table.
+	 * @param docs {@link DocSet} matching the query & filters of the key.
+	 * @param previous {@link RankTable} of the same query & filters on this or
+	 * the previous searcher, null if none.
+	 * @param executor Pool to count segments on, null to count on the calling
+	 * thread.
+	 * @throws IOException
+	 */
+	public static RankTable createRankTable(SolrIndexSearcher searcher, RankTableKey key, DocSet docs, RankTable previous, 
+			ThreadPoolExecutor executor) throws IOException {
+		if (SegmentHistogram.supports(searcher.getSchema().getField(key.getRankField()))) {
+			return SegmentHistogram.getRankTable(searcher, key, docs, previous, executor);
+		}
+		return createRankTable(searcher, docs, key.getRankField(), key.getOrder());
+	}
+	
+	/**
+	 * Looks up the {@link RankTable} for the passed {@link RankTableKey} in the
+	 * {@value #RANK_CACHE} of the searcher, a missing table is built from the 
+	 * passed {@link DocSet} & added to the cache. The segment histograms of a
+	 * cached table of the opposite order are reused. Without the cache the 
+	 * table is built on every call.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param key {@link RankTableKey} identifying the table.
+	 * @param docs {@link DocSet} matching the query & filters of the key.
+	 * @throws IOException
+	 */
+	public static RankTable getRankTable(SolrIndexSearcher searcher, RankTableKey key, DocSet docs) throws IOException {
+		return getRankTable(searcher, key, docs, null);
+	}
+	
+	/**
+	 * Looks up the {@link RankTable} for the passed {@link RankTableKey} like
+	 * {@link #getRankTable(SolrIndexSearcher, RankTableKey, DocSet)}, a missing
+	 * table is counted on the passed pool.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param key {@link RankTableKey} identifying the table.
+	 * @param docs {@link DocSet} matching the query & filters of the key.
+	 * @param executor Pool to count segments on, null to count on the calling
+	 * thread.
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public static RankTable getRankTable(SolrIndexSearcher searcher, RankTableKey key, DocSet docs, ThreadPoolExecutor executor) throws IOException {
+		SolrCache<RankTableKey, RankTable> cache = searcher.getCache(RANK_CACHE);
+		RankTable rankTable = cache == null ? null : cache.get(key);
+		if (rankTable == null) {
+			RankTable opposite = cache == null ? null : cache.get(new RankTableKey(key.getRankField(), 
+					key.getOrder().equals(SolrQuery.ORDER.asc) ? SolrQuery.ORDER.desc : SolrQuery.ORDER.asc, key.getQuery(), key.getFilters()));
+			rankTable = createRankTable(searcher, key, docs, opposite, executor);
+			if (cache != null) {
+				cache.put(key, rankTable);
+			}
+		}
+		return rankTable;
+	}
+	
+	/**
+	 * Builds a {@link RankTable} from the counts of the rank field over the 
+	 * passed {@link DocSet}.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param docs {@link DocSet} of documents to be ranked.
+	 * @param rankField {@link String} rank field identifier string
+	 * @param order Sort order of the rank field.
+	 * @throws IOException
+	 */
+	public static RankTable createRankTable(SolrIndexSearcher searcher, DocSet docs, String rankField, SolrQuery.ORDER order) throws IOException {
+		NamedList<Number> counts = getFieldCounts(searcher, docs, rankField);
+		return RankTable.create(counts, searcher.getSchema().getFieldType(rankField), order);
+	}
+	
+	/**
+	 * Builds a {@link RankTable} holding only the values from the best value 
+	 * of the rank field down to the passed boundary value, inclusive. The term
+	 * dictionary of the field is walked in index order from the best value, or
+	 * from the boundary for descending order, & the walk stops at the boundary
+	 * instead of counting every value. Values past the boundary are not part 
+	 * of the table. Requires a field whose indexed terms sort in value order,
+	 * see {@link #isIndexOrdered(FieldType)}.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param docs {@link DocSet} of documents to be ranked.
+	 * @param rankField {@link String} rank field identifier string
+	 * @param order Sort order of the rank field.
+	 * @param boundary Readable value of the worst value to be counted, null
+	 * for an empty table.
+	 * @throws IOException
+	 */
+	public static RankTable createRankTable(SolrIndexSearcher searcher, DocSet docs, String rankField, SolrQuery.ORDER order, String boundary) throws IOException {
+		FieldType ft = searcher.getSchema().getFieldType(rankField);
+		List<String> terms = new ArrayList<String>();
+		int[] counts = new int[16];
+		if (boundary != null) {
+			boolean desc = order.equals(SolrQuery.ORDER.desc);
+			String boundaryTerm = ft.toInternal(boundary);
+			// Trie fields index lower precision terms after the full precision ones
+			String prefix = TrieField.getMainValuePrefix(ft);
+			IndexReader reader = searcher.getReader();
+			TermEnum termEnum = reader.terms(new Term(rankField, desc ? boundaryTerm : prefix == null ? "" : prefix));
+			TermDocs termDocs = reader.termDocs();
+			int[] docBuffer = new int[64];
+			int[] freqBuffer = new int[64];
+			try {
+				do {
+					Term term = termEnum.term();
+					if (term == null || !term.field().equals(rankField) || (prefix != null && !term.text().startsWith(prefix)) 
+							|| (!desc && term.text().compareTo(boundaryTerm) > 0)) {
+						break;
+					}
+					termDocs.seek(termEnum);
+					int count = countDocs(termDocs, docs, docBuffer, freqBuffer);
+					if (count > 0) {
+						if (terms.size() == counts.length) {
+							counts = Arrays.copyOf(counts, counts.length * 2);
+						}
+						counts[terms.size()] = count;
+						terms.add(term.text());
+					}
+				} while (termEnum.next());
+			} finally {
+				termDocs.close();
+				termEnum.close();
+			}
+		}
+		return RankTable.create(terms.toArray(new String[terms.size()]), Arrays.copyOf(counts, terms.size()), ft, order);
+	}
+	
+	/**
+	 * Builds the {@link RankSketch} for the passed {@link RankSketchKey} from 
+	 * the documents matching its query & filters.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param key {@link RankSketchKey} identifying the sketch.
+	 * @throws IOException
+	 */
+	public static RankSketch createRankSketch(SolrIndexSearcher searcher, RankSketchKey key) throws IOException {
+		RankTableKey tableKey = key.getTableKey();
+		List<Query> queries = new ArrayList<Query>(tableKey.getFilters());
+		if (tableKey.getQuery() != null) {
+			queries.add(tableKey.getQuery());
+		}
+		return createRankSketch(searcher, searcher.getDocSet(queries), tableKey.getRankField(), key.getEpsilon());
+	}
+	
+	/**
+	 * Looks up the {@link RankSketch} for the passed {@link RankSketchKey} in 
+	 * the {@value #RANK_CACHE} of the searcher, a missing sketch is built from
+	 * the passed {@link DocSet} & added to the cache.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param key {@link RankSketchKey} identifying the sketch.
+	 * @param docs {@link DocSet} matching the query & filters of the key.
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public static RankSketch getRankSketch(SolrIndexSearcher searcher, RankSketchKey key, DocSet docs) throws IOException {
+		SolrCache<RankSketchKey, RankSketch> cache = searcher.getCache(RANK_CACHE);
+		RankSketch rankSketch = cache == null ? null : cache.get(key);
+		if (rankSketch == null) {
+			rankSketch = createRankSketch(searcher, docs, key.getTableKey().getRankField(), key.getEpsilon());
+			if (cache != null) {
+				cache.put(key, rankSketch);
+			}
+		}
+		return rankSketch;
+	}
+	
+	/**
+	 * Builds a {@link RankSketch} of the rank field over the passed 
+	 * {@link DocSet}. The term dictionary of the field is walked once in index
+	 * order & only the values kept by the sketch are held in memory. Requires 
+	 * a field whose indexed terms sort in value order, see 
+	 * {@link #isIndexOrdered(FieldType)}.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param docs {@link DocSet} of documents to be ranked.
+	 * @param rankField {@link String} rank field identifier string
+	 * @param epsilon Relative error bound of the sketch.
+	 * @throws IOException
+	 */
+	public static RankSketch createRankSketch(SolrIndexSearcher searcher, DocSet docs, String rankField, double epsilon) throws IOException {
+		FieldType ft = searcher.getSchema().getFieldType(rankField);
+		RankSketch.Builder builder = RankSketch.builder(ft, docs.size(), epsilon);
+		// Trie fields index lower precision terms after the full precision ones
+		String prefix = TrieField.getMainValuePrefix(ft);
+		IndexReader reader = searcher.getReader();
+		TermEnum termEnum = reader.terms(new Term(rankField, prefix == null ? "" : prefix));
+		TermDocs termDocs = reader.termDocs();
+		int[] docBuffer = new int[64];
+		int[] freqBuffer = new int[64];
+		try {
+			do {
+				Term term = termEnum.term();
+				if (term == null || !term.field().equals(rankField) || (prefix != null && !term.text().startsWith(prefix))) {
+					break;
+				}
+				termDocs.seek(termEnum);
+				builder.add(term.text(), countDocs(termDocs, docs, docBuffer, freqBuffer));
+			} while (termEnum.next());
+		} finally {
+			termDocs.close();
+			termEnum.close();
+		}
+		return builder.build();
+	}
+	
+	/**
+	 * Counts the documents of the positioned {@link TermDocs} that are in the
+	 * passed {@link DocSet}, reading postings in bulk through the buffers.
+	 */
+	private static int countDocs(TermDocs termDocs, DocSet docs, int[] docBuffer, int[] freqBuffer) throws IOException {
+		int count = 0;
+		for (int read = termDocs.read(docBuffer, freqBuffer); read > 0; read = termDocs.read(docBuffer, freqBuffer)) {
+			for (int i = 0; i < read; i++) {
+				if (docs.exists(docBuffer[i])) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns true if the indexed terms of the field type sort in the order of
+	 * their values, false for the plain numeric types whose terms are the 
+	 * unpadded numbers.
+	 * 
+	 * @param fieldType {@link FieldType} of the field.
+	 */
+	public static boolean isIndexOrdered(FieldType fieldType) {
+		return !(fieldType instanceof IntField || fieldType instanceof LongField || fieldType instanceof FloatField 
+				|| fieldType instanceof DoubleField || fieldType instanceof ShortField || fieldType instanceof ByteField);
+	}
+}
\ No newline at end of file
@@ -18,40 +18,79 @@ package com.sn.solr.plugin.comp;
 import static com.sn.solr.plugin.common.SolrHelper.RESP_EL_TAG;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Sort;
 
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.AppendedSolrParams;
 import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.params.ShardParams;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.RTimer;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
 import org.apache.solr.handler.component.FacetComponent;
 import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.handler.component.SearchComponent;
+import org.apache.solr.handler.component.ShardRequest;
+import org.apache.solr.handler.component.ShardResponse;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocList;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.DocSlice;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.SortSpec;
+import org.apache.solr.search.WrappedQuery;
+import org.apache.solr.util.plugin.SolrCoreAware;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.sn.solr.plugin.common.AppHelper;
-import com.sn.solr.plugin.common.Pair;
 import com.sn.solr.plugin.common.SolrHelper;
+import com.sn.solr.plugin.rank.RankCursor;
 import com.sn.solr.plugin.rank.RankEngine;
+import com.sn.solr.plugin.rank.RankMethod;
+import com.sn.solr.plugin.rank.RankSketch;
+import com.sn.solr.plugin.rank.RankSketchKey;
 import com.sn.solr.plugin.rank.RankStrategy;
+import com.sn.solr.plugin.rank.RankTable;
+import com.sn.solr.plugin.rank.RankTableKey;
+import com.sn.solr.plugin.rank.SegmentHistogram;
 
 /**
  * <code>RankComponent</code> that extends Solr Component to provide 
  * a ranking component that handles ranking.
  * 
  * <p>
- * Requires paramter @see {@link #PARAM_RANK_STRATEGY} to be set as part of the request.
- * This parameter determines the ranking strategy. If not present uses default
- * ranking strategy of ORDINAL ranking.
- * 
- * <p>
- * {@link com.sn.solr.plugin.rank.RankEngine} provides implementation for
- * number of ranking strategies defined in {@link com.sn.solr.plugin.rank.RankStrategy}.
- * Refer to {@link com.sn.solr.plugin.rank.RankEngine} for details of different
- * ranking strategy implementations.
+ * Ranks the documents of the page by the strategies of 
+ * {@link #PARAM_RANK_STRATEGY}, ORDINAL if not present, see 
+ * {@link com.sn.solr.plugin.rank.RankEngine}. {@link #PARAM_RANK_METHOD} picks
+ * how the rank field values are counted, {@link #PARAM_RANK_IDS} looks up the
+ * ranks of documents, {@link #PARAM_RANK_AROUND}, {@link #PARAM_RANK_JUMP} & 
+ * {@link #PARAM_RANK_CURSOR} pick the page by rank, 
+ * {@link #PARAM_RANK_PARTITION_FIELD} ranks within partitions & 
+ * {@link #PARAM_RANK_APPROX} estimates ranks from a sketch. Distributed 
+ * requests merge the histograms of the shards in 
+ * {@link #finishStage(ResponseBuilder)}. The parameters & the configuration 
+ * of the rank cache, snapshots & count threads are described in the README.
  * 
  * <p>
  * It is <b>highly recommended</b> that this component be used by configuring a
@@ -64,7 +103,7 @@ import com.sn.solr.plugin.rank.RankStrategy;
  * @see #prepare(ResponseBuilder)
  * @see #process(ResponseBuilder)
  */
-public class RankComponent extends FacetComponent {
+public class RankComponent extends FacetComponent implements SolrCoreAware {
 
 	private static final Logger LOG = LoggerFactory.getLogger(RankComponent.class);
 	
@@ -77,17 +116,148 @@ public class RankComponent extends FacetComponent {
 	
 	public static final String PARAM_RANK_FIELD_SORT = "sn.rank.field.sort";
 	
+	public static final String PARAM_RANK_METHOD = "sn.rank.method";
+	
+	/**
+	 * Set on shard requests of a distributed request, asks the shard to return
+	 * the rank histogram instead of ranking its documents.
+	 */
+	public static final String PARAM_RANK_HISTOGRAM = "sn.rank.histogram";
+	
+	public static final String PARAM_RANK_IDS = "sn.rank.ids";
+	
+	public static final String PARAM_RANK_PARTITION_FIELD = "sn.rank.partition.field";
+	
+	/**
+	 * Id of the document to return the window of documents around.
+	 */
+	public static final String PARAM_RANK_AROUND = "sn.rank.around";
+	
+	/**
+	 * Number of documents above & below the {@link #PARAM_RANK_AROUND} document,
+	 * 5 if not present.
+	 */
+	public static final String PARAM_RANK_WINDOW = "sn.rank.window";
+	
+	/**
+	 * Rank of the first strategy to return the page from, in place of start.
+	 */
+	public static final String PARAM_RANK_JUMP = "sn.rank.jump";
+	
+	/**
+	 * Cursor returned with the previous page, "*" for the first page.
+	 */
+	public static final String PARAM_RANK_CURSOR = "sn.rank.cursor";
+	
+	/**
+	 * Number of buckets of the NTILE strategy, percentiles if not present.
+	 */
+	public static final String PARAM_RANK_NTILES = "sn.rank.ntiles";
+	
+	/**
+	 * Ranks from a {@link RankSketch} instead of exact counts when true.
+	 */
+	public static final String PARAM_RANK_APPROX = "sn.rank.approx";
+	
+	/**
+	 * Relative error bound of approximate ranks, 0.001 if not present.
+	 */
+	public static final String PARAM_RANK_APPROX_ERROR = "sn.rank.approx.error";
+	
+	// Init Arg Identifiers
+	public static final String INIT_COUNT_THREADS = "countThreads";
+	
 	private static final String RANK_TAG = "rank";
+	
+	private static final String RANK_HISTOGRAM_TAG = "rank_histogram";
+	
+	private static final String RANK_NUM_DOCS_TAG = "rank_numDocs";
+	
+	private static final String RANK_APPROX_TAG = "rank_approx";
+	
+	private static final String RANK_LOOKUP_TAG = "rank_lookup";
+	
+	private static final String RANK_CURSOR_TAG = "rank_cursor";
+	
+	private static final String RANK_DEBUG_TAG = "rank";
+	
+	private static final String RANK_TABLE_CONTEXT_KEY = RankComponent.class.getName() + ".rankTable";
+	
+	private static final String RANK_NUM_DOCS_CONTEXT_KEY = RankComponent.class.getName() + ".numDocs";
+	
+	private static final String START_TIME_CONTEXT_KEY = RankComponent.class.getName() + ".startTime";
+	
+	private static final String COUNT_EXECUTOR_CONTEXT_KEY = RankComponent.class.getName() + ".countExecutor";
+	
+	private static final String RANK_FIELD_ADDED_CONTEXT_KEY = RankComponent.class.getName() + ".rankFieldAdded";
 
 	// Request Defaults
 	private static final RankStrategy DEFAULT_RANK_STRATEGY = RankStrategy.ORDINAL;
 	
+	private static final RankMethod DEFAULT_RANK_METHOD = RankMethod.FACET;
+	
+	private static final double DEFAULT_APPROX_ERROR = 0.001;
+	
+	private static final int DEFAULT_WINDOW = 5;
+	
+	private static final int DEFAULT_ROWS = 10;
+	
 	private static final String FIELD_ID = "ID";
 
 	private static final String FIELD_RANK = "SCORE";
 	
 	private static final SolrQuery.ORDER FIELD_RANK_SORT = SolrQuery.ORDER.asc;
+	
+	private final RankStatistics statistics = new RankStatistics();
+	
+	private final RankStatistics shardStatistics = new RankStatistics();
+	
+	private ThreadPoolExecutor countExecutor;
 
+	/**
+	 * <p>
+	 * Reads the optional {@value #INIT_COUNT_THREADS} argument, the number of
+	 * threads rank field values are counted with. The threads belong to this 
+	 * component & are stopped when the core is closed.
+	 * 
+	 * <pre>
+	 * &lt;searchComponent name="rank" class="com.sn.solr.plugin.comp.RankComponent"&gt;
+	 *   &lt;int name="countThreads"&gt;8&lt;/int&gt;
+	 * &lt;/searchComponent&gt;
+	 * </pre>
+	 * 
+	 * @param args Init arguments of the component.
+	 */
+	@SuppressWarnings("rawtypes")
+	@Override
+	public void init(NamedList args) {
+		super.init(args);
+		Integer countThreads = SolrParams.toSolrParams(args).getInt(INIT_COUNT_THREADS);
+		if (countThreads != null) {
+			countExecutor = SegmentHistogram.createExecutor(countThreads);
+		}
+	}
+	
+	/**
+	 * Registers a {@link CloseHook} stopping the count threads with the core.
+	 * 
+	 * @param core {@link SolrCore} the component belongs to.
+	 */
+	public void inform(SolrCore core) {
+		if (countExecutor != null) {
+			core.addCloseHook(new CloseHook() {
+				@Override
+				public void preClose(SolrCore core) {
+					countExecutor.shutdownNow();
+				}
+				
+				@Override
+				public void postClose(SolrCore core) {
+				}
+			});
+		}
+	}
+	
 	/**
 	 * <p>
 	 * Process request parameters & determines the ranking strategy based on
@@ -97,18 +267,48 @@ public class RankComponent extends FacetComponent {
 	 * 
 	 * @param rb
 	 */
-	@SuppressWarnings("deprecation")
 	@Override
 	public void prepare(ResponseBuilder rb) throws IOException {
+		long startTime = System.nanoTime();
+		boolean failed = true;
+		try {
+			prepareRank(rb, startTime);
+			failed = false;
+		} finally {
+			//A failed request is not processed, record it here
+			if (failed) {
+				rb.req.getContext().remove(START_TIME_CONTEXT_KEY);
+				(isShard(rb.req.getParams()) ? shardStatistics : statistics).recordRequest(getRecordedStrategy(rb.req.getParams()), startTime, true);
+			}
+		}
+	}
+	
+	@SuppressWarnings("deprecation")
+	private void prepareRank(ResponseBuilder rb, long startTime) throws IOException {
 		SolrParams params = rb.req.getParams();
-		RankStrategy rankStrategy = getRankStrategy(params);
+		List<RankStrategy> rankStrategies = getRankStrategies(params);
 		String rankField = getRankField(params);
+		boolean histogram = params.getBool(PARAM_RANK_HISTOGRAM, false);
+		if (countExecutor != null) {
+			rb.req.getContext().put(COUNT_EXECUTOR_CONTEXT_KEY, countExecutor);
+		}
 		
-		if (!(rankStrategy.equals(RankStrategy.ORDINAL) || rankStrategy.equals(RankStrategy.LEGACY_DENSE))) {
-			SolrQuery invariants = new SolrQuery().setFacet(true).addFacetField(rankField).setFacetLimit(-1);
-			AppendedSolrParams appendedParams = new AppendedSolrParams(params, invariants);
-			LOG.info("Setting Invariants: {} Appended Params{}", new Object[]{ invariants, appendedParams});
-			rb.req.setParams(appendedParams);
+		if (isSeek(params)) {
+			prepareSeek(rb, rankField);
+		}
+		if (isDistributed(params)) {
+			//Shards return rank histograms, see modifyRequest()
+			rb.req.getContext().put(START_TIME_CONTEXT_KEY, startTime);
+		} else if (histogram || (!isShard(params) && (getRankIds(params) != null || getPartitionField(params) != null || (!isCursor(params) && (isSeek(params) || isCounted(rankStrategies)))))) {
+			if (!isFacetCounted(rb)) {
+				//Counts are computed by this component from the query DocSet, no facet pass needed
+				rb.setNeedDocSet(true);
+			} else {
+				SolrQuery invariants = new SolrQuery().setFacet(true).addFacetField(rankField).setFacetLimit(-1);
+				AppendedSolrParams appendedParams = new AppendedSolrParams(params, invariants);
+				LOG.info("Setting Invariants: {} Appended Params{}", new Object[]{ invariants, appendedParams});
+				rb.req.setParams(appendedParams);
+			}
 		}
 		super.prepare(rb);
 	}
@@ -127,50 +327,185 @@ public class RankComponent extends FacetComponent {
 	 * 
 	 * @param rb ResponseBuilder
 	 */
-	@SuppressWarnings("deprecation")
 	@Override
 	public void process(ResponseBuilder rb) throws IOException {
+		long startTime = System.nanoTime();
+		RankStrategy rankStrategy = getRankStrategy(rb.req.getParams());
+		boolean failed = true;
+		try {
+			processRank(rb, rankStrategy);
+			failed = false;
+		} finally {
+			//Shard requests are part of a distributed request recorded by finishStage()
+			(isShard(rb.req.getParams()) ? shardStatistics : statistics).recordRequest(rankStrategy, startTime, failed);
+		}
+	}
+	
+	@SuppressWarnings("deprecation")
+	private void processRank(ResponseBuilder rb, RankStrategy rankStrategy) throws IOException {
+		List<RankStrategy> rankStrategies = getRankStrategies(rb.req.getParams());
+		//Per phase timing, only collected for debug requests
+		RTimer timer = rb.isDebug() ? new RTimer() : null;
 		//Complete parent component process
+		RTimer phase = startPhase(timer, "facet");
 		super.process(rb);
+		stopPhase(phase);
 		long startTime = System.nanoTime();
 		//Prepare Params
 		SolrParams params = rb.req.getParams();
-		RankStrategy rankStrategy = getRankStrategy(params);
+		if (isShard(params)) {
+			if (params.getBool(PARAM_RANK_HISTOGRAM, false)) {
+				shardStatistics.recordCounts(rankStrategy, processHistogram(rb), 0);
+			}
+			return;
+		}
 		String idField = getIdField(params);
 		String rankField = getRankField(params);
+		RankMethod rankMethod = getRankMethod(params, rankStrategies, rb.req.getSchema().getFieldType(rankField));
+		String partitionField = getPartitionField(params);
 		SolrQuery.ORDER rankFieldSort = getRankFieldSortOrder(params, rankField); 
-		LOG.info("Params Passed - RankStrategy: {} IdField: {} RankField: {} RankSort: {}", new Object[]{ rankStrategy, idField, rankField, rankFieldSort });
+		LOG.info("Params Passed - RankStrategy: {} RankMethod: {} IdField: {} RankField: {} RankSort: {} PartitionField: {}", new Object[]{ rankStrategies, rankMethod, idField, rankField, rankFieldSort, partitionField });
+		String _start = rb.req.getParams().get(CommonParams.START);
+		int start = 0;
+		if (_start != null && AppHelper.isInteger(_start))
+			start = new Integer(_start);
+		//Seek the requested rows in place of the empty page of the query
+		RankTable seekTable = null;
+		RankCursor cursor = null;
+		if (isCursor(params)) {
+			phase = startPhase(timer, "seek");
+			cursor = seekCursor(rb, idField, rankField);
+			start = (int) cursor.getCount();
+			stopPhase(phase);
+		} else if (isSeek(params)) {
+			phase = startPhase(timer, "seek");
+			seekTable = getRankTable(rb, rankField, rankFieldSort);
+			start = params.get(PARAM_RANK_AROUND) != null ? seekAround(rb, seekTable, idField, rankField) : seekRank(rb, seekTable, rankField, rankStrategy);
+			stopPhase(phase);
+		}
 		//Construct New Response derived from response from previous chain
-		SolrDocumentList docList = SolrHelper.getSolrDocList(rb.req, rb.rsp);
+		phase = startPhase(timer, "docs");
+		SolrDocumentList docList = SolrHelper.getSolrDocList(rb.req, rb.rsp, idField, rankField, partitionField);
+		if (isSeek(params)) {
+			docList.setStart(start);
+		}
 		rb.rsp.add(RESP_EL_TAG, docList);
+		stopPhase(phase);
 
 		//Process ranking
-		Map<String, Number> rankMap = null;
-		List<Pair<String, Number>> pairList = null;
-		if (rankStrategy.equals(RankStrategy.LEGACY_DENSE)) {
-			rankMap = RankEngine.computeLegacyDenseRank(rb, idField, rankField);
-		} else if (rankStrategy.equals(RankStrategy.ORDINAL)) {
-			pairList = SolrHelper.createPairList(docList, idField);
-			String _start = rb.req.getParams().get(CommonParams.START);
-			int start = 0;
-			if (_start != null && AppHelper.isInteger(_start))
-				start = new Integer(_start);
-			rankMap = RankEngine.computeOrdinalBasedRank(pairList, start);
+		phase = startPhase(timer, "rank");
+		Map<String, int[]> localCounts = null;
+		long[] ordinalRanks = null;
+		int[] legacyDenseRanks = null;
+		RankTable rankTable = null;
+		RankSketch rankSketch = null;
+		Map<String, RankTable> partitionTables = null;
+		Map<String, DocSet> partitionDocs = new HashMap<String, DocSet>();
+		//Counts are gathered once & shared by all the requested strategies
+		if (seekTable != null) {
+			rankTable = seekTable;
+		} else if (cursor != null) {
+			//Ranked from the counters carried by the cursor
+		} else if (partitionField != null) {
+			partitionTables = getPartitionedRankTables(rb, partitionField, rankField, rankFieldSort);
+		} else if (!isCounted(rankStrategies)) {
+			if (rankStrategies.contains(RankStrategy.LEGACY_DENSE)) {
+				legacyDenseRanks = RankEngine.computeLegacyDenseRank(rb, rankField, start, docList.size());
+			}
+		} else if (isApprox(params) && SolrHelper.isIndexOrdered(rb.req.getSchema().getFieldType(rankField))) {
+			rankSketch = getRankSketch(rb, rankField);
+		} else if (rankMethod.equals(RankMethod.LOCAL)) {
+			SchemaField sf = rb.req.getSchema().getField(rankField);
+			List<String> values = SolrHelper.getFieldValues(docList, rankField);
+			localCounts = RankEngine.computePageLocalCounts(rb.req.getSearcher(), rb.getResults().docSet, sf, rankFieldSort, values);
+		} else if (rankMethod.equals(RankMethod.BOUNDED)) {
+			rankTable = getBoundedRankTable(rb, rankField, rankFieldSort, SolrHelper.getFieldValues(docList, rankField));
 		} else {
-			pairList = SolrHelper.createPairList(SolrHelper.getFacetsByField(rb.rsp, rankField), rankFieldSort);
-			rankMap = RankEngine.computeFacetBasedRank(pairList, rankStrategy);
+			rankTable = getRankTable(rb, rankField, rankFieldSort);
+		}
+		if (rankStrategies.contains(RankStrategy.ORDINAL)) {
+			ordinalRanks = new long[docList.size()];
+			RankEngine.computeOrdinalRank(start, ordinalRanks);
+		}
+		stopPhase(phase);
+		LOG.debug("LOCAL COUNTS: {} RANK TABLE: {} RANK SKETCH: {}", new Object[]{ localCounts, rankTable, rankSketch });
+		if (isApprox(params) && partitionField == null) {
+			NamedList<Object> approx = new SimpleOrderedMap<Object>();
+			approx.add("epsilon", rankSketch == null ? 0 : rankSketch.getEpsilon());
+			approx.add("errorBound", rankSketch == null ? 0 : rankSketch.getErrorBound());
+			approx.add("values", rankSketch == null ? 0 : rankSketch.size());
+			rb.rsp.add(RANK_APPROX_TAG, approx);
+		}
+		
+		//Look up ranks of requested ids
+		List<String> rankIds = getRankIds(params);
+		if (rankIds != null) {
+			phase = startPhase(timer, "lookup");
+			rb.rsp.add(RANK_LOOKUP_TAG, lookupRanks(rb, rankIds, rankStrategies, rankMethod, rankSketch, idField, rankField, rankFieldSort));
+			stopPhase(phase);
 		}
-		LOG.debug("RANK MAP: ", rankMap);
 		
 		//Add computed ranks to response
+		phase = startPhase(timer, "decorate");
+		int ntiles = getNtiles(params);
+		int i = 0;
+		DocIterator docIds = rb.getResults().docList.iterator();
+		FieldType idType = rb.req.getSchema().getFieldType(idField);
 		for (SolrDocument d : docList) {
-			if (rankStrategy.equals(RankStrategy.ORDINAL) || rankStrategy.equals(RankStrategy.LEGACY_DENSE)) {
-				d.addField(RANK_TAG, rankMap.get(d.get(idField)));
-			} else {
-				d.addField(RANK_TAG, rankMap.get(d.get(rankField)));
+			int docId = docIds.nextDoc();
+			String value = (String) d.getFirstValue(rankField);
+			int pos = rankTable == null ? -1 : rankTable.indexOf(value);
+			int[] counts = localCounts == null || value == null ? null : localCounts.get(value);
+			if (cursor != null) {
+				cursor = cursor.next(value, SolrHelper.toReadableValue(idType, d.getFirstValue(idField)));
 			}
+			for (RankStrategy strategy : rankStrategies) {
+				Number rank = null;
+				if (partitionTables != null) {
+					rank = computePartitionRank(rb, partitionTables, partitionDocs, d, docId, partitionField, rankField, strategy, ntiles);
+				} else if (strategy.equals(RankStrategy.ORDINAL)) {
+					rank = ordinalRanks[i];
+				} else if (cursor != null) {
+					rank = cursor.getRank(strategy);
+				} else if (legacyDenseRanks != null) {
+					rank = i < legacyDenseRanks.length ? legacyDenseRanks[i] : null;
+				} else if (rankSketch != null) {
+					rank = computeRank(rankSketch, value, rankFieldSort, strategy, ntiles);
+				} else if (rankTable != null) {
+					rank = computeRank(rankTable, pos, strategy, rankTable.getNumDocs(), ntiles);
+				} else if (counts != null) {
+					rank = RankEngine.computeCompetitionRank(counts[0], counts[1], strategy);
+				}
+				addRank(d, rankStrategies, strategy, rank);
+			}
+			i++;
+		}
+		if (cursor != null) {
+			rb.rsp.add(RANK_CURSOR_TAG, cursor.toString());
 		}
+		//Fields only loaded for ranking are not returned
+		SolrHelper.removeRequiredFields(docList, rb.req, idField, rankField, partitionField);
+		stopPhase(phase);
 
+		int values = rankTable != null ? rankTable.size() : localCounts != null ? localCounts.size() : rankSketch != null ? rankSketch.size() : 0;
+		if (partitionTables != null) {
+			for (RankTable partitionTable : partitionTables.values()) {
+				values += partitionTable.size();
+			}
+		}
+		statistics.recordCounts(rankStrategy, values, docList.size());
+		if (timer != null) {
+			timer.stop();
+			NamedList<Object> debug = new SimpleOrderedMap<Object>();
+			debug.add("strategy", getKeys(rankStrategies));
+			debug.add("method", rankMethod.getKey());
+			debug.add("values", values);
+			debug.add("docsLoaded", docList.size());
+			debug.add("rankMapSize", localCounts == null ? 0 : localCounts.size());
+			debug.add("timing", timer.asNamedList());
+			rb.addDebugInfo(RANK_DEBUG_TAG, debug);
+		}
+		
 		//Finally remove any facet results from response
 		if (rb.rsp.getValues() != null) {
 			rb.rsp.getValues().remove(SolrHelper.FACET_CNT_TAG);
@@ -179,6 +514,178 @@ public class RankComponent extends FacetComponent {
 		LOG.info("SolrUtils - Rank Component Time: {}", AppHelper.getDiffTime(startTime));
 	}
 
+	/**
+	 * <p>
+	 * Asks the shards to return rank histograms along with their top documents
+	 * & makes sure the rank field is loaded when the fields of the merged page 
+	 * are retrieved.
+	 * 
+	 * @param rb ResponseBuilder
+	 */
+	@Override
+	public void modifyRequest(ResponseBuilder rb, SearchComponent who, ShardRequest sreq) {
+		super.modifyRequest(rb, who, sreq);
+		SolrParams params = rb.req.getParams();
+		if ((sreq.purpose & ShardRequest.PURPOSE_GET_TOP_IDS) != 0 && !Collections.singletonList(RankStrategy.ORDINAL).containsAll(getRankStrategies(params))) {
+			sreq.params.set(PARAM_RANK_HISTOGRAM, true);
+		} else if ((sreq.purpose & ShardRequest.PURPOSE_GET_FIELDS) != 0) {
+			String rankField = getRankField(params);
+			String fl = sreq.params.get(CommonParams.FL);
+			if (fl != null && fl.length() > 0 && !SolrHelper.getReturnFields(rb.req).contains(rankField)) {
+				sreq.params.set(CommonParams.FL, fl + "," + rankField);
+				rb.req.getContext().put(RANK_FIELD_ADDED_CONTEXT_KEY, Boolean.TRUE);
+			}
+		}
+	}
+	
+	/**
+	 * <p>
+	 * Merges the rank histograms returned by the shards into a single 
+	 * {@link RankTable} for the request.
+	 * 
+	 * @param rb ResponseBuilder
+	 */
+	@Override
+	public void handleResponses(ResponseBuilder rb, ShardRequest sreq) {
+		boolean failed = true;
+		try {
+			super.handleResponses(rb, sreq);
+			mergeHistograms(rb, sreq);
+			failed = false;
+		} finally {
+			if (failed) {
+				recordDistributedRequest(rb, true);
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static void mergeHistograms(ResponseBuilder rb, ShardRequest sreq) {
+		if ((sreq.purpose & ShardRequest.PURPOSE_GET_TOP_IDS) == 0 || !sreq.params.getBool(PARAM_RANK_HISTOGRAM, false)) {
+			return;
+		}
+		SolrParams params = rb.req.getParams();
+		String rankField = getRankField(params);
+		List<NamedList<? extends Number>> histograms = new ArrayList<NamedList<? extends Number>>();
+		int numDocs = 0;
+		for (ShardResponse srsp : sreq.responses) {
+			NamedList<Number> histogram = (NamedList<Number>) srsp.getSolrResponse().getResponse().get(RANK_HISTOGRAM_TAG);
+			if (histogram != null) {
+				histograms.add(histogram);
+			}
+			Number shardNumDocs = (Number) srsp.getSolrResponse().getResponse().get(RANK_NUM_DOCS_TAG);
+			if (shardNumDocs != null) {
+				numDocs += shardNumDocs.intValue();
+			}
+		}
+		RankTable rankTable = RankTable.merge(histograms, rb.req.getSchema().getFieldType(rankField), getRankFieldSortOrder(params, rankField));
+		LOG.debug("Merged {} shard histograms into {}", histograms.size(), rankTable);
+		rb.req.getContext().put(RANK_TABLE_CONTEXT_KEY, rankTable);
+		rb.req.getContext().put(RANK_NUM_DOCS_CONTEXT_KEY, numDocs);
+	}
+	
+	/**
+	 * <p>
+	 * Adds the global rank to each document of the merged page once the 
+	 * stored fields are retrieved from the shards & removes the rank field
+	 * again if it was only fetched for ranking.
+	 * 
+	 * @param rb ResponseBuilder
+	 */
+	@Override
+	public void finishStage(ResponseBuilder rb) {
+		boolean failed = true;
+		try {
+			super.finishStage(rb);
+			finishRank(rb);
+			failed = false;
+		} finally {
+			if (failed) {
+				recordDistributedRequest(rb, true);
+			}
+		}
+	}
+	
+	private void finishRank(ResponseBuilder rb) {
+		if (rb.stage != ResponseBuilder.STAGE_GET_FIELDS || rb.rsp.getValues() == null) {
+			return;
+		}
+		SolrDocumentList docList = (SolrDocumentList) rb.rsp.getValues().get(RESP_EL_TAG);
+		if (docList == null) {
+			return;
+		}
+		SolrParams params = rb.req.getParams();
+		List<RankStrategy> rankStrategies = getRankStrategies(params);
+		RankStrategy rankStrategy = rankStrategies.get(0);
+		String rankField = getRankField(params);
+		FieldType fieldType = rb.req.getSchema().getFieldType(rankField);
+		RankTable rankTable = (RankTable) rb.req.getContext().get(RANK_TABLE_CONTEXT_KEY);
+		statistics.recordCounts(rankStrategy, rankTable == null ? 0 : rankTable.size(), docList.size());
+		long[] ordinalRanks = new long[docList.size()];
+		RankEngine.computeOrdinalRank(docList.getStart(), ordinalRanks);
+		//The merged table only covers the top documents of each shard
+		Integer numDocs = (Integer) rb.req.getContext().get(RANK_NUM_DOCS_CONTEXT_KEY);
+		int ntiles = getNtiles(params);
+		int i = 0;
+		for (SolrDocument d : docList) {
+			int pos = rankTable == null ? -1 : rankTable.indexOf(SolrHelper.toReadableValue(fieldType, d.getFirstValue(rankField)));
+			for (RankStrategy strategy : rankStrategies) {
+				if (rankTable != null && !strategy.equals(RankStrategy.ORDINAL)) {
+					addRank(d, rankStrategies, strategy, computeRank(rankTable, pos, strategy, numDocs == null ? rankTable.getNumDocs() : numDocs, ntiles));
+				} else {
+					addRank(d, rankStrategies, strategy, ordinalRanks[i]);
+				}
+			}
+			i++;
+		}
+		if (rb.req.getContext().containsKey(RANK_FIELD_ADDED_CONTEXT_KEY)) {
+			for (SolrDocument d : docList) {
+				d.removeFields(rankField);
+			}
+		}
+		recordDistributedRequest(rb, false);
+	}
+	
+	/**
+	 * Records the distributed request started by {@link #prepare(ResponseBuilder)}
+	 * once, either when it failed or when its ranks are added.
+	 */
+	private void recordDistributedRequest(ResponseBuilder rb, boolean failed) {
+		Long startTime = (Long) rb.req.getContext().remove(START_TIME_CONTEXT_KEY);
+		if (startTime != null) {
+			statistics.recordRequest(getRecordedStrategy(rb.req.getParams()), startTime, failed);
+		}
+	}
+	
+	/**
+	 * Returns the strategy a request is recorded for, null if the requested 
+	 * strategies cannot be read.
+	 */
+	private static RankStrategy getRecordedStrategy(SolrParams params) {
+		try {
+			return getRankStrategy(params);
+		} catch (SolrException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns request & error counts, latency percentiles & histogram, counted
+	 * values & ranked documents per strategy, see {@link RankStatistics}. 
+	 * Top level requests, distributed ones included, are counted once, the 
+	 * shard requests served by this component are counted apart with a 
+	 * "shard." prefix.
+	 */
+	@Override
+	public NamedList<Object> getStatistics() {
+		NamedList<Object> stats = statistics.toNamedList();
+		NamedList<Object> shardStats = shardStatistics.toNamedList();
+		for (int i = 0; i < shardStats.size(); i++) {
+			stats.add("shard." + shardStats.getName(i), shardStats.getVal(i));
+		}
+		return stats;
+	}
+
 	@Override
 	public String getDescription() {
 		return "Custom Rank Component to generate ranking of results for different ranking strategy based on a score field";
@@ -199,28 +706,653 @@ public class RankComponent extends FacetComponent {
 		return "$Revision:$";
 	}
 	
-	private static RankStrategy getRankStrategy(SolrParams params){
-		RankStrategy rankStrategy = DEFAULT_RANK_STRATEGY;
-		String _rankStrategy = params.get(PARAM_RANK_STRATEGY, null);
-		if (_rankStrategy != null) {
-			rankStrategy = RankStrategy.getByKey(_rankStrategy);
+	/**
+	 * Returns the {@link RankTable} for the current request. When the rank 
+	 * cache is configured the table is looked up by {@link RankTableKey} & 
+	 * built from the query {@link DocSet} on a miss, otherwise it is created 
+	 * from the facet counts forced by {@link #prepare(ResponseBuilder)}.
+	 */
+	private static RankTable getRankTable(ResponseBuilder rb, String rankField, SolrQuery.ORDER order) throws IOException {
+		SolrIndexSearcher searcher = rb.req.getSearcher();
+		if (isFacetCounted(rb)) {
+			return RankTable.create(SolrHelper.getFacetsByField(rb.rsp, rankField), searcher.getSchema().getFieldType(rankField), order);
+		}
+		RankTableKey key = new RankTableKey(rankField, order, rb.getQuery(), rb.getFilters());
+		return SolrHelper.getRankTable(searcher, key, rb.getResults().docSet, getCountExecutor(rb));
+	}
+	
+	/**
+	 * Returns a {@link RankTable} counting only the values down to the worst of
+	 * the passed page values, see {@link RankMethod#BOUNDED}. Falls back to the
+	 * complete table when the indexed terms of the rank field do not sort in 
+	 * value order.
+	 */
+	private static RankTable getBoundedRankTable(ResponseBuilder rb, String rankField, SolrQuery.ORDER order, List<String> values) throws IOException {
+		FieldType ft = rb.req.getSchema().getFieldType(rankField);
+		if (!SolrHelper.isIndexOrdered(ft)) {
+			return getRankTable(rb, rankField, order);
+		}
+		String boundary = null;
+		String boundaryTerm = null;
+		for (String value : values) {
+			if (value != null) {
+				String term = ft.toInternal(value);
+				if (boundaryTerm == null || (order.equals(SolrQuery.ORDER.desc) ? term.compareTo(boundaryTerm) < 0 : term.compareTo(boundaryTerm) > 0)) {
+					boundary = value;
+					boundaryTerm = term;
+				}
+			}
+		}
+		return SolrHelper.createRankTable(rb.req.getSearcher(), rb.getResults().docSet, rankField, order, boundary);
+	}
+	
+	/**
+	 * Checks a request seeking its rows by rank value & collapses the page of
+	 * the query component, the rows are searched once the counts are known, 
+	 * see {@link #seekAround(ResponseBuilder, RankTable, String, String)} &
+	 * {@link #seekRank(ResponseBuilder, RankTable, String, RankStrategy)}.
+	 */
+	private static void prepareSeek(ResponseBuilder rb, String rankField) {
+		SolrParams params = rb.req.getParams();
+		String seekParam = isCursor(params) ? PARAM_RANK_CURSOR : params.get(PARAM_RANK_AROUND) != null ? PARAM_RANK_AROUND : PARAM_RANK_JUMP;
+		if (isDistributed(params) || getPartitionField(params) != null) {
+			throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, seekParam + " is not supported in distributed or partitioned requests");
+		}
+		Sort sort = rb.getSortSpec().getSort();
+		if (sort == null || !rankField.equals(sort.getSort()[0].getField())) {
+			throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, seekParam + " requires " + rankField + " as the first sort field");
+		}
+		if (!SolrHelper.isIndexOrdered(rb.req.getSchema().getFieldType(rankField))) {
+			throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, seekParam + " requires a rank field whose indexed terms sort in value order");
+		}
+		if (isCursor(params)) {
+			prepareCursor(rb, sort);
+		}
+		rb.setNeedDocSet(true);
+		//Only the count & DocSet of the query are needed
+		rb.setSortSpec(new SortSpec(sort, 0, 0));
+	}
+	
+	/**
+	 * Checks the sort, fields & strategies of a {@link #PARAM_RANK_CURSOR} 
+	 * request, the id field must break the ties of the rank field for the next
+	 * page to start right after the last document & both must be stored to be
+	 * carried by the cursor.
+	 */
+	private static void prepareCursor(ResponseBuilder rb, Sort sort) {
+		SolrParams params = rb.req.getParams();
+		String idField = getIdField(params);
+		if (sort.getSort().length < 2 || !idField.equals(sort.getSort()[1].getField()) 
+				|| !SolrHelper.isIndexOrdered(rb.req.getSchema().getFieldType(idField))) {
+			throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, PARAM_RANK_CURSOR + " requires " + idField + " as the second sort field");
+		}
+		for (String field : new String[]{ getRankField(params), idField }) {
+			if (!rb.req.getSchema().getField(field).stored()) {
+				throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, PARAM_RANK_CURSOR + " requires " + field + " to be stored");
+			}
 		}
-		return rankStrategy;
+		for (RankStrategy rankStrategy : getRankStrategies(params)) {
+			if (!RankCursor.supports(rankStrategy)) {
+				throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, PARAM_RANK_CURSOR + " does not support " + rankStrategy.getKey() + " ranking");
+			}
+		}
+		getCursor(params);
+	}
+	
+	/**
+	 * Replaces the page with the rows documents after the document of the 
+	 * {@link #PARAM_RANK_CURSOR} cursor & returns the cursor.
+	 */
+	private static RankCursor seekCursor(ResponseBuilder rb, String idField, String rankField) throws IOException {
+		SolrParams params = rb.req.getParams();
+		RankCursor cursor = getCursor(params);
+		SolrIndexSearcher searcher = rb.req.getSearcher();
+		Sort sort = rb.getSortSpec().getSort();
+		DocSet docs = SolrHelper.getDocsAfter(searcher, rb.getResults().docSet, sort, rankField, cursor.getValue(), idField, cursor.getId());
+		setPage(rb, searcher.getDocList(rb.getQuery(), docs, sort, 0, params.getInt(CommonParams.ROWS, DEFAULT_ROWS)));
+		return cursor;
+	}
+	
+	/**
+	 * Replaces the page with the documents around the {@link #PARAM_RANK_AROUND} 
+	 * document, the page is empty if the document does not match the query or 
+	 * has no rank value. Returns the row of the first document of the page.
+	 */
+	private static int seekAround(ResponseBuilder rb, RankTable rankTable, String idField, String rankField) throws IOException {
+		SolrParams params = rb.req.getParams();
+		int window = getWindow(params);
+		int row = getRow(rb, rankTable, params.get(PARAM_RANK_AROUND), idField, rankField);
+		int first = row < 0 ? 0 : Math.max(row - window, 0);
+		int last = row < 0 ? -1 : row + window;
+		setPage(rb, SolrHelper.getRankedDocs(rb.req.getSearcher(), rb.getQuery(), rb.getResults().docSet, rb.getSortSpec().getSort(), 
+				rankField, rankTable, first, last));
+		return first;
+	}
+	
+	/**
+	 * Replaces the page with the rows documents starting at the first document
+	 * ranked at least {@link #PARAM_RANK_JUMP} by the passed strategy. Returns
+	 * the row of the first document of the page.
+	 */
+	private static int seekRank(ResponseBuilder rb, RankTable rankTable, String rankField, RankStrategy rankStrategy) throws IOException {
+		SolrParams params = rb.req.getParams();
+		int first = RankEngine.computeRow(rankTable, params.getDouble(PARAM_RANK_JUMP), rankStrategy, getNtiles(params));
+		int rows = params.getInt(CommonParams.ROWS, DEFAULT_ROWS);
+		setPage(rb, SolrHelper.getRankedDocs(rb.req.getSearcher(), rb.getQuery(), rb.getResults().docSet, rb.getSortSpec().getSort(), 
+				rankField, rankTable, first, first + rows - 1));
+		return first;
+	}
+	
+	/**
+	 * Returns the row of the document with the passed id in the order of the
+	 * request, -1 if the document does not match the query or has no rank 
+	 * value. Only the documents sharing its rank value are sorted to find it.
+	 */
+	private static int getRow(ResponseBuilder rb, RankTable rankTable, String id, String idField, String rankField) throws IOException {
+		SolrIndexSearcher searcher = rb.req.getSearcher();
+		DocSet docSet = rb.getResults().docSet;
+		int docId = searcher.getFirstMatch(new Term(idField, searcher.getSchema().getFieldType(idField).toInternal(id)));
+		if (docId < 0 || !docSet.exists(docId)) {
+			return -1;
+		}
+		Fieldable f = searcher.doc(docId, Collections.singleton(rankField)).getFieldable(rankField);
+		int pos = f == null ? -1 : rankTable.indexOf(searcher.getSchema().getFieldType(rankField).toExternal(f));
+		if (pos < 0) {
+			return -1;
+		}
+		int row = rankTable.getBetter(pos);
+		DocList ties = SolrHelper.getRankedDocs(searcher, rb.getQuery(), docSet, rb.getSortSpec().getSort(), rankField, rankTable, 
+				row, row + rankTable.getCount(pos) - 1);
+		for (DocIterator it = ties.iterator(); it.hasNext(); row++) {
+			if (it.nextDoc() == docId) {
+				return row;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Puts the passed documents in place of the page of the query component,
+	 * keeping the number of documents found by the query.
+	 */
+	private static void setPage(ResponseBuilder rb, DocList docs) {
+		int[] docIds = new int[docs.size()];
+		float[] scores = docs.hasScores() ? new float[docs.size()] : null;
+		int i = 0;
+		for (DocIterator it = docs.iterator(); it.hasNext(); i++) {
+			docIds[i] = it.nextDoc();
+			if (scores != null) {
+				scores[i] = it.score();
+			}
+		}
+		DocSlice page = new DocSlice(0, docIds.length, docIds, scores, rb.getResults().docList.matches(), docs.maxScore());
+		rb.getResults().docList = page;
+		@SuppressWarnings("unchecked")
+		NamedList<Object> values = rb.rsp.getValues();
+		values.setVal(values.indexOf(RESP_EL_TAG, 0), page);
+	}
+	
+	/**
+	 * Returns a {@link RankTable} per value of the partition field, counted in
+	 * a single pass over the query {@link DocSet}.
+	 */
+	private static Map<String, RankTable> getPartitionedRankTables(ResponseBuilder rb, String partitionField, String rankField, 
+			SolrQuery.ORDER order) throws IOException {
+		SchemaField partitionSchemaField = rb.req.getSchema().getField(partitionField);
+		SchemaField rankSchemaField = rb.req.getSchema().getField(rankField);
+		if (!SegmentHistogram.supports(partitionSchemaField) || !SegmentHistogram.supports(rankSchemaField)) {
+			throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, PARAM_RANK_PARTITION_FIELD + " requires single valued partition & rank fields");
+		}
+		return SegmentHistogram.getPartitionedRankTables(rb.req.getSearcher(), partitionSchemaField, rankSchemaField, order, rb.getResults().docSet);
+	}
+	
+	/**
+	 * Returns the rank of a document within the documents having the same 
+	 * partition value, null if the document has no partition or rank value.
+	 * Ordinal ranks count the documents of the partition with the same value
+	 * that come first in the sort of the request. The documents of each 
+	 * partition are resolved once per request into the passed map, without 
+	 * going through the filter cache.
+	 */
+	private static Number computePartitionRank(ResponseBuilder rb, Map<String, RankTable> partitionTables, Map<String, DocSet> partitionDocs, 
+			SolrDocument d, int docId, String partitionField, String rankField, RankStrategy rankStrategy, int ntiles) throws IOException {
+		FieldType partitionType = rb.req.getSchema().getFieldType(partitionField);
+		String partition = SolrHelper.toReadableValue(partitionType, d.getFirstValue(partitionField));
+		RankTable table = partition == null ? null : partitionTables.get(partitionType.toInternal(partition));
+		if (table == null) {
+			return null;
+		}
+		int pos = table.indexOf(SolrHelper.toReadableValue(rb.req.getSchema().getFieldType(rankField), d.getFirstValue(rankField)));
+		if (pos < 0) {
+			return null;
+		}
+		if (rankStrategy.equals(RankStrategy.ORDINAL)) {
+			SolrIndexSearcher searcher = rb.req.getSearcher();
+			DocSet docs = partitionDocs.get(partition);
+			if (docs == null) {
+				WrappedQuery query = new WrappedQuery(partitionType.getFieldQuery(null, rb.req.getSchema().getField(partitionField), partition));
+				query.setCache(false);
+				docs = searcher.getDocSet(query, rb.getResults().docSet);
+				partitionDocs.put(partition, docs);
+			}
+			Sort sort = rb.getSortSpec() == null ? null : rb.getSortSpec().getSort();
+			return RankEngine.computeOrdinalRank(table, pos, SolrHelper.countDocsBefore(searcher, docs, rankField, table.getTerm(pos), table.getCount(pos), docId, sort));
+		}
+		return computeRank(table, pos, rankStrategy, table.getNumDocs(), ntiles);
+	}
+	
+	/**
+	 * Returns the rank field value & rank of each of the passed ids, null values
+	 * for ids not matched by the query. The rank value of each document is 
+	 * read from its stored field & ranked with the counts of the request, 
+	 * either from the {@link RankTable} or by page local counting.
+	 */
+	private static NamedList<Object> lookupRanks(ResponseBuilder rb, List<String> ids, List<RankStrategy> rankStrategies, RankMethod rankMethod, RankSketch rankSketch, 
+			String idField, String rankField, SolrQuery.ORDER rankFieldSort) throws IOException {
+		SolrIndexSearcher searcher = rb.req.getSearcher();
+		DocSet docSet = rb.getResults().docSet;
+		SchemaField idSchemaField = searcher.getSchema().getField(idField);
+		SchemaField rankSchemaField = searcher.getSchema().getField(rankField);
+		Set<String> rankFields = Collections.singleton(rankField);
+		int[] docIds = new int[ids.size()];
+		List<String> values = new ArrayList<String>();
+		for (int i = 0; i < docIds.length; i++) {
+			docIds[i] = searcher.getFirstMatch(new Term(idField, idSchemaField.getType().toInternal(ids.get(i))));
+			if (docIds[i] >= 0 && docSet.exists(docIds[i])) {
+				Fieldable f = searcher.doc(docIds[i], rankFields).getFieldable(rankField);
+				values.add(f == null ? null : rankSchemaField.getType().toExternal(f));
+			} else {
+				values.add(null);
+			}
+		}
+		Map<String, int[]> localCounts = null;
+		RankTable rankTable = null;
+		if (rankSketch == null && rankMethod.equals(RankMethod.LOCAL)) {
+			localCounts = RankEngine.computePageLocalCounts(searcher, docSet, rankSchemaField, rankFieldSort, values);
+		}
+		//Ordinal ranks of looked up documents are read from the table
+		if (rankSketch == null && (localCounts == null || rankStrategies.contains(RankStrategy.ORDINAL))) {
+			rankTable = getRankTable(rb, rankField, rankFieldSort);
+		}
+		int ntiles = getNtiles(rb.req.getParams());
+		NamedList<Object> lookup = new NamedList<Object>();
+		for (int i = 0; i < docIds.length; i++) {
+			String value = values.get(i);
+			NamedList<Object> entry = new SimpleOrderedMap<Object>();
+			entry.add(rankField, value);
+			int pos = value == null || rankTable == null ? -1 : rankTable.indexOf(value);
+			for (RankStrategy rankStrategy : rankStrategies) {
+				Number rank = null;
+				if (value == null) {
+					rank = null;
+				} else if (rankSketch != null && rankStrategy.equals(RankStrategy.ORDINAL)) {
+					String term = rankSchemaField.getType().toInternal(value);
+					rank = rankSketch.getBetter(value, rankFieldSort) + SolrHelper.countDocsBefore(searcher, docSet, rankField, term, docIds[i]) + 1;
+				} else if (rankSketch != null) {
+					rank = computeRank(rankSketch, value, rankFieldSort, rankStrategy, ntiles);
+				} else if (rankStrategy.equals(RankStrategy.ORDINAL)) {
+					rank = pos < 0 ? null : RankEngine.computeOrdinalRank(rankTable, pos, SolrHelper.countDocsBefore(searcher, docSet, rankField, rankTable.getTerm(pos), docIds[i]));
+				} else if (localCounts != null) {
+					int[] counts = localCounts.get(value);
+					rank = RankEngine.computeCompetitionRank(counts[0], counts[1], rankStrategy);
+				} else {
+					rank = computeRank(rankTable, pos, rankStrategy, rankTable.getNumDocs(), ntiles);
+				}
+				if (rankStrategy.equals(rankStrategies.get(0))) {
+					entry.add(RANK_TAG, rank);
+				}
+				if (rankStrategies.size() > 1) {
+					entry.add(getRankTag(rankStrategy), rank);
+				}
+			}
+			lookup.add(ids.get(i), entry);
+		}
+		return lookup;
+	}
+	
+	/**
+	 * Reads the rank of the value at the given position of the table, the 
+	 * distribution strategies are relative to the passed number of documents.
+	 */
+	@SuppressWarnings("deprecation")
+	private static Number computeRank(RankTable rankTable, int pos, RankStrategy rankStrategy, int numDocs, int ntiles) {
+		//Legacy dense ranking is a dense ranking over the sorted documents
+		return RankEngine.computeRank(rankTable, pos, rankStrategy.equals(RankStrategy.LEGACY_DENSE) ? RankStrategy.DENSE : rankStrategy, numDocs, ntiles);
+	}
+	
+	/**
+	 * Estimates the rank of the value from the sketch.
+	 */
+	@SuppressWarnings("deprecation")
+	private static Number computeRank(RankSketch rankSketch, String value, SolrQuery.ORDER order, RankStrategy rankStrategy, int ntiles) {
+		//Legacy dense ranking is a dense ranking over the sorted documents
+		return RankEngine.computeRank(rankSketch, value, order, rankStrategy.equals(RankStrategy.LEGACY_DENSE) ? RankStrategy.DENSE : rankStrategy, ntiles);
+	}
+	
+	/**
+	 * Returns the {@link RankSketch} of the rank field over the query 
+	 * {@link DocSet}, from the rank cache when configured.
+	 */
+	private static RankSketch getRankSketch(ResponseBuilder rb, String rankField) throws IOException {
+		RankTableKey tableKey = new RankTableKey(rankField, SolrQuery.ORDER.asc, rb.getQuery(), rb.getFilters());
+		RankSketchKey key = new RankSketchKey(tableKey, getApproxError(rb.req.getParams()));
+		return SolrHelper.getRankSketch(rb.req.getSearcher(), key, rb.getResults().docSet);
+	}
+	
+	/**
+	 * Adds the rank computed with the passed strategy to the document. The
+	 * first requested strategy goes to the "rank" field, with several 
+	 * strategies each also goes to its own field, see {@link #getRankTag(RankStrategy)}.
+	 */
+	private static void addRank(SolrDocument d, List<RankStrategy> rankStrategies, RankStrategy rankStrategy, Number rank) {
+		if (rankStrategy.equals(rankStrategies.get(0))) {
+			d.addField(RANK_TAG, rank);
+		}
+		if (rankStrategies.size() > 1) {
+			d.addField(getRankTag(rankStrategy), rank);
+		}
+	}
+	
+	/**
+	 * Returns the name of the field holding the rank of a strategy when several
+	 * strategies are requested, e.g. rank_dense.
+	 */
+	public static String getRankTag(RankStrategy rankStrategy) {
+		return RANK_TAG + "_" + rankStrategy.getKey();
+	}
+	
+	/**
+	 * Starts timing a phase of the request, null if timing is not collected.
+	 */
+	private static RTimer startPhase(RTimer timer, String name) {
+		return timer == null ? null : timer.sub(name);
+	}
+	
+	private static void stopPhase(RTimer phase) {
+		if (phase != null) {
+			phase.stop();
+		}
+	}
+	
+	/**
+	 * Adds the histogram of the rank field to the response of a shard request,
+	 * covering the top start + rows documents of the shard. Returns the number
+	 * of values in the histogram.
+	 */
+	private static int processHistogram(ResponseBuilder rb) throws IOException {
+		SolrParams params = rb.req.getParams();
+		String rankField = getRankField(params);
+		RankTable rankTable = getRankTable(rb, rankField, getRankFieldSortOrder(params, rankField));
+		int maxDocs = params.getInt(CommonParams.START, 0) + params.getInt(CommonParams.ROWS, 10);
+		NamedList<Integer> histogram = rankTable.toHistogram(maxDocs);
+		rb.rsp.add(RANK_HISTOGRAM_TAG, histogram);
+		//Distribution strategies are relative to all the ranked documents
+		rb.rsp.add(RANK_NUM_DOCS_TAG, rankTable.getNumDocs());
+		//Remove facet results forced by this component
+		if (!rb.req.getOriginalParams().getBool(FacetParams.FACET, false) && rb.rsp.getValues() != null) {
+			rb.rsp.getValues().remove(SolrHelper.FACET_CNT_TAG);
+		}
+		return histogram.size();
+	}
+	
+	private static boolean isDistributed(SolrParams params) {
+		return params.get(ShardParams.SHARDS) != null && !isShard(params);
+	}
+	
+	private static boolean isShard(SolrParams params) {
+		return params.getBool(ShardParams.IS_SHARD, false);
+	}
+	
+	/**
+	 * Returns true if the counts of the rank field are read from the facet pass
+	 * forced by {@link #prepare(ResponseBuilder)}, false if this component 
+	 * counts them from the query {@link DocSet}.
+	 */
+	private static boolean isFacetCounted(ResponseBuilder rb) {
+		SolrParams params = rb.req.getParams();
+		FieldType ft = rb.req.getSchema().getFieldType(getRankField(params));
+		return !isCountedByComponent(rb) && (params.getBool(PARAM_RANK_HISTOGRAM, false) 
+				|| (getPartitionField(params) == null && !isApprox(params) && getRankMethod(params, getRankStrategies(params), ft).equals(RankMethod.FACET)));
+	}
+	
+	/**
+	 * Rank field values are counted by this component instead of a facet pass
+	 * when the rank cache or count threads are configured.
+	 */
+	private static boolean isCountedByComponent(ResponseBuilder rb) {
+		return getRankCache(rb) != null || getCountExecutor(rb) != null;
+	}
+	
+	/**
+	 * Returns the pool of the component handling the request, null when 
+	 * counting runs on the request thread.
+	 */
+	private static ThreadPoolExecutor getCountExecutor(ResponseBuilder rb) {
+		return (ThreadPoolExecutor) rb.req.getContext().get(COUNT_EXECUTOR_CONTEXT_KEY);
+	}
+	
+	/**
+	 * Returns the rank cache of the searcher of the request, null if none is
+	 * configured.
+	 */
+	@SuppressWarnings("unchecked")
+	private static SolrCache<RankTableKey, RankTable> getRankCache(ResponseBuilder rb) {
+		return rb.req.getSearcher().getCache(SolrHelper.RANK_CACHE);
+	}
+	
+	/**
+	 * Returns the {@link RankStrategy} requested by {@link #PARAM_RANK_STRATEGY}, 
+	 * the first one when several are requested, ORDINAL if not present.
+	 */
+	public static RankStrategy getRankStrategy(SolrParams params){
+		return getRankStrategies(params).get(0);
+	}
+	
+	/**
+	 * Returns the strategies requested by {@link #PARAM_RANK_STRATEGY} as a 
+	 * comma separated list, in request order without duplicates, ORDINAL if 
+	 * none is present.
+	 * 
+	 * @throws SolrException BAD_REQUEST for an unknown strategy key.
+	 */
+	public static List<RankStrategy> getRankStrategies(SolrParams params){
+		List<RankStrategy> rankStrategies = new ArrayList<RankStrategy>();
+		String[] _rankStrategies = params.getParams(PARAM_RANK_STRATEGY);
+		if (_rankStrategies != null) {
+			for (String _rankStrategy : _rankStrategies) {
+				for (String key : _rankStrategy.split(",")) {
+					if (key.trim().length() == 0) {
+						continue;
+					}
+					RankStrategy rankStrategy = RankStrategy.getByKey(key.trim());
+					if (rankStrategy == null) {
+						throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "Unknown " + PARAM_RANK_STRATEGY + ": " + key.trim());
+					}
+					if (!rankStrategies.contains(rankStrategy)) {
+						rankStrategies.add(rankStrategy);
+					}
+				}
+			}
+		}
+		if (rankStrategies.isEmpty()) {
+			rankStrategies.add(DEFAULT_RANK_STRATEGY);
+		}
+		return rankStrategies;
+	}
+	
+	/**
+	 * Returns true if any of the strategies needs the counts of the rank field
+	 * values, ORDINAL & LEGACY_DENSE are computed from the sorted documents.
+	 */
+	@SuppressWarnings("deprecation")
+	private static boolean isCounted(List<RankStrategy> rankStrategies){
+		for (RankStrategy rankStrategy : rankStrategies) {
+			if (!(rankStrategy.equals(RankStrategy.ORDINAL) || rankStrategy.equals(RankStrategy.LEGACY_DENSE))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static List<String> getKeys(List<RankStrategy> rankStrategies){
+		List<String> keys = new ArrayList<String>();
+		for (RankStrategy rankStrategy : rankStrategies) {
+			keys.add(rankStrategy.getKey());
+		}
+		return keys;
+	}
+
+	/**
+	 * Returns the {@link RankMethod} requested by {@link #PARAM_RANK_METHOD},
+	 * FACET if not present or if it does not support all the counted strategies.
+	 * LOCAL falls back to FACET as well when the indexed terms of the rank 
+	 * field do not sort in value order, as BOUNDED does.
+	 */
+	private static RankMethod getRankMethod(SolrParams params, List<RankStrategy> rankStrategies, FieldType ft){
+		RankMethod rankMethod = DEFAULT_RANK_METHOD;
+		String _rankMethod = params.get(PARAM_RANK_METHOD, null);
+		if (_rankMethod != null && RankMethod.getByKey(_rankMethod) != null) {
+			rankMethod = RankMethod.getByKey(_rankMethod);
+		}
+		if (rankMethod.equals(RankMethod.LOCAL) && !SolrHelper.isIndexOrdered(ft)) {
+			LOG.info("Rank method {} requires a rank field whose indexed terms sort in value order, using {}", rankMethod, DEFAULT_RANK_METHOD);
+			return DEFAULT_RANK_METHOD;
+		}
+		for (RankStrategy rankStrategy : rankStrategies) {
+			//Ordinal ranks are read from the page position by every method
+			if (!rankMethod.supports(rankStrategy) && (!rankStrategy.equals(RankStrategy.ORDINAL) || rankStrategies.size() == 1)) {
+				LOG.info("Rank method {} does not support {}, using {}", new Object[]{ rankMethod, rankStrategy, DEFAULT_RANK_METHOD });
+				rankMethod = DEFAULT_RANK_METHOD;
+				break;
+			}
+		}
+		return rankMethod;
 	}
 
-	private static String getIdField(SolrParams params){
+	/**
+	 * Returns the number of buckets requested by {@link #PARAM_RANK_NTILES},
+	 * {@link RankEngine#DEFAULT_NTILES} if not present.
+	 */
+	public static int getNtiles(SolrParams params){
+		int ntiles = params.getInt(PARAM_RANK_NTILES, RankEngine.DEFAULT_NTILES);
+		if (ntiles < 1) {
+			throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, PARAM_RANK_NTILES + " must be positive");
+		}
+		return ntiles;
+	}
+	
+	/**
+	 * Returns true if approximate ranks are requested by {@link #PARAM_RANK_APPROX}.
+	 */
+	public static boolean isApprox(SolrParams params){
+		return params.getBool(PARAM_RANK_APPROX, false);
+	}
+	
+	/**
+	 * Returns the relative error bound requested by {@link #PARAM_RANK_APPROX_ERROR},
+	 * 0.001 if not present.
+	 */
+	public static double getApproxError(SolrParams params){
+		double epsilon = params.getDouble(PARAM_RANK_APPROX_ERROR, DEFAULT_APPROX_ERROR);
+		if (!(epsilon > 0 && epsilon < 1)) {
+			throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, PARAM_RANK_APPROX_ERROR + " must be between 0 & 1");
+		}
+		return epsilon;
+	}
+	
+	/**
+	 * Returns true if the rows of the page are seeked by rank value, see 
+	 * {@link #PARAM_RANK_AROUND}, {@link #PARAM_RANK_JUMP} & {@link #PARAM_RANK_CURSOR}.
+	 */
+	private static boolean isSeek(SolrParams params){
+		return params.get(PARAM_RANK_AROUND) != null || params.get(PARAM_RANK_JUMP) != null || isCursor(params);
+	}
+	
+	/**
+	 * Returns true if the page follows a cursor, see {@link #PARAM_RANK_CURSOR}.
+	 */
+	private static boolean isCursor(SolrParams params){
+		return params.get(PARAM_RANK_CURSOR) != null;
+	}
+	
+	/**
+	 * Returns the cursor requested by {@link #PARAM_RANK_CURSOR}.
+	 */
+	public static RankCursor getCursor(SolrParams params){
+		try {
+			return RankCursor.parse(params.get(PARAM_RANK_CURSOR));
+		} catch (IllegalArgumentException e) {
+			throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Returns the number of documents requested by {@link #PARAM_RANK_WINDOW},
+	 * 5 if not present.
+	 */
+	public static int getWindow(SolrParams params){
+		int window = params.getInt(PARAM_RANK_WINDOW, DEFAULT_WINDOW);
+		if (window < 0) {
+			throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, PARAM_RANK_WINDOW + " must not be negative");
+		}
+		return window;
+	}
+	
+	/**
+	 * Returns the ids requested by {@link #PARAM_RANK_IDS}, null if not present.
+	 */
+	private static List<String> getRankIds(SolrParams params){
+		String[] _rankIds = params.getParams(PARAM_RANK_IDS);
+		if (_rankIds == null) {
+			return null;
+		}
+		List<String> rankIds = new ArrayList<String>();
+		for (String _rankId : _rankIds) {
+			for (String rankId : _rankId.split(",")) {
+				if (rankId.trim().length() > 0) {
+					rankIds.add(rankId.trim());
+				}
+			}
+		}
+		return rankIds.isEmpty() ? null : rankIds;
+	}
+	
+	/**
+	 * Returns the id field requested by {@link #PARAM_ID_FIELD}.
+	 */
+	public static String getIdField(SolrParams params){
 		return params.get(PARAM_ID_FIELD, FIELD_ID);
 	}
 	
-	private static String getRankField(SolrParams params){
+	/**
+	 * Returns the partition field requested by {@link #PARAM_RANK_PARTITION_FIELD},
+	 * null if not present.
+	 */
+	public static String getPartitionField(SolrParams params){
+		return params.get(PARAM_RANK_PARTITION_FIELD);
+	}
+	
+	/**
+	 * Returns the rank field requested by {@link #PARAM_RANK_FIELD}.
+	 */
+	public static String getRankField(SolrParams params){
 		return params.get(PARAM_RANK_FIELD, FIELD_RANK);
 	}
 	
-	private static SolrQuery.ORDER getRankFieldSortOrder(SolrParams params, String rankField){
-		SolrQuery.ORDER rankFieldSort = FIELD_RANK_SORT; 
-		if(params.get(CommonParams.SORT, rankField+" asc").contains(rankField+" desc")){
-			rankFieldSort = SolrQuery.ORDER.desc;
+	/**
+	 * Returns the order of the rank field in the sort of the request.
+	 */
+	public static SolrQuery.ORDER getRankFieldSortOrder(SolrParams params, String rankField){
+		String sort = params.get(CommonParams.SORT);
+		if(sort != null){
+			//Match the clause of the rank field exactly, "score desc" must not match "myscore"
+			for(String clause : sort.split(",")){
+				String[] parts = clause.trim().split("\\s+");
+				if(parts[0].equals(rankField)){
+					return parts.length > 1 && "desc".equalsIgnoreCase(parts[1]) ? SolrQuery.ORDER.desc : SolrQuery.ORDER.asc;
+				}
+			}
 		}
-		return rankFieldSort;
+		return FIELD_RANK_SORT;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,184 @@
+/*
+ * Copyright 20011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sn.solr.plugin.comp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+import com.sn.solr.plugin.rank.RankStrategy;
+
+/**
+ * <code>RankStatistics</code> records the requests served by a 
+ * {@link RankComponent} per {@link RankStrategy}: request & error counts, a 
+ * latency histogram, the number of distinct rank values counted & the number
+ * of documents ranked. Counters are atomics per strategy so concurrent 
+ * requests only contend when they use the same strategy. Requests failing 
+ * before their strategy is known are counted in the totals only.
+ * 
+ * <p>
+ * Statistics are exposed flat, keyed by strategy ("dense.requests", 
+ * "dense.p99", ...), so every value is a separate attribute in JMX & on the 
+ * admin stats page.
+ * 
+ * @author Sathiya N Sundararjan
+ * @since 0.3.1
+ */
+public class RankStatistics {
+	
+	/**
+	 * Upper bounds of the latency histogram buckets in milliseconds, a last 
+	 * bucket holds the slower requests.
+	 */
+	static final long[] LATENCY_BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+	
+	private final Counters[] counters;
+	
+	private final Counters unknown = new Counters();
+	
+	public RankStatistics() {
+		counters = new Counters[RankStrategy.values().length];
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = new Counters();
+		}
+	}
+	
+	/**
+	 * Records a request & its latency.
+	 * 
+	 * @param rankStrategy Strategy of the request, null if not known.
+	 * @param startTime {@link System#nanoTime()} at the start of the request.
+	 * @param failed True if the request failed.
+	 */
+	public void recordRequest(RankStrategy rankStrategy, long startTime, boolean failed) {
+		Counters c = rankStrategy == null ? unknown : counters[rankStrategy.ordinal()];
+		long nanos = System.nanoTime() - startTime;
+		c.requests.incrementAndGet();
+		c.time.addAndGet(nanos);
+		c.latency.incrementAndGet(getBucket(nanos / 1000000));
+		if (failed) {
+			c.errors.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Records the number of distinct rank values counted & documents ranked
+	 * by a request.
+	 */
+	public void recordCounts(RankStrategy rankStrategy, int values, int docs) {
+		if (rankStrategy == null) {
+			return;
+		}
+		Counters c = counters[rankStrategy.ordinal()];
+		c.values.addAndGet(values);
+		c.docs.addAndGet(docs);
+		long max = c.maxValues.get();
+		while (values > max && !c.maxValues.compareAndSet(max, values)) {
+			max = c.maxValues.get();
+		}
+	}
+	
+	/**
+	 * Returns the statistics of the strategies that served requests.
+	 */
+	public NamedList<Object> toNamedList() {
+		NamedList<Object> stats = new SimpleOrderedMap<Object>();
+		long requests = unknown.requests.get(), errors = unknown.errors.get(), time = unknown.time.get();
+		for (Counters c : counters) {
+			requests += c.requests.get();
+			errors += c.errors.get();
+			time += c.time.get();
+		}
+		stats.add("requests", requests);
+		stats.add("errors", errors);
+		stats.add("totalTime", time / 1000000);
+		stats.add("avgTimePerRequest", requests == 0 ? 0f : time / 1000000f / requests);
+		for (RankStrategy rankStrategy : RankStrategy.values()) {
+			Counters c = counters[rankStrategy.ordinal()];
+			long strategyRequests = c.requests.get();
+			if (strategyRequests == 0) {
+				continue;
+			}
+			String prefix = rankStrategy.getKey() + ".";
+			stats.add(prefix + "requests", strategyRequests);
+			stats.add(prefix + "errors", c.errors.get());
+			stats.add(prefix + "avgTimePerRequest", c.time.get() / 1000000f / strategyRequests);
+			long[] latency = new long[LATENCY_BUCKETS.length + 1];
+			long total = 0;
+			for (int i = 0; i < latency.length; i++) {
+				latency[i] = c.latency.get(i);
+				total += latency[i];
+			}
+			stats.add(prefix + "p50", getPercentile(latency, total, 0.50));
+			stats.add(prefix + "p99", getPercentile(latency, total, 0.99));
+			stats.add(prefix + "avgValues", c.values.get() / (float) strategyRequests);
+			stats.add(prefix + "maxValues", c.maxValues.get());
+			stats.add(prefix + "docs", c.docs.get());
+			for (int i = 0; i < latency.length; i++) {
+				stats.add(prefix + "latency." + getBucketName(i), latency[i]);
+			}
+		}
+		return stats;
+	}
+	
+	private static int getBucket(long millis) {
+		int bucket = 0;
+		while (bucket < LATENCY_BUCKETS.length && millis >= LATENCY_BUCKETS[bucket]) {
+			bucket++;
+		}
+		return bucket;
+	}
+	
+	private static String getBucketName(int bucket) {
+		return bucket < LATENCY_BUCKETS.length ? "lt" + LATENCY_BUCKETS[bucket] + "ms" : "ge" + LATENCY_BUCKETS[bucket - 1] + "ms";
+	}
+	
+	/**
+	 * Returns the upper bound in milliseconds of the bucket holding the 
+	 * percentile, -1 if it falls in the last, unbounded bucket.
+	 */
+	private static long getPercentile(long[] latency, long total, double percentile) {
+		long rank = (long) Math.ceil(total * percentile);
+		long seen = 0;
+		for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+			seen += latency[i];
+			if (seen >= rank) {
+				return LATENCY_BUCKETS[i];
+			}
+		}
+		return -1;
+	}
+	
+	private static class Counters {
+		
+		private final AtomicLong requests = new AtomicLong();
+		
+		private final AtomicLong errors = new AtomicLong();
+		
+		private final AtomicLong time = new AtomicLong();
+		
+		private final AtomicLong values = new AtomicLong();
+		
+		private final AtomicLong maxValues = new AtomicLong();
+		
+		private final AtomicLong docs = new AtomicLong();
+		
+		private final AtomicLongArray latency = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+		
+	}
+}
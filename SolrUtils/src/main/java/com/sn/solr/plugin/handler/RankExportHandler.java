@@ -0,0 +1,291 @@
+/*
+ * Copyright 20011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sn.solr.plugin.handler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.Query;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.QueryParsing;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sn.solr.plugin.common.AppHelper;
+import com.sn.solr.plugin.common.SolrHelper;
+import com.sn.solr.plugin.comp.RankComponent;
+import com.sn.solr.plugin.rank.RankEngine;
+import com.sn.solr.plugin.rank.RankStrategy;
+import com.sn.solr.plugin.rank.RankTable;
+import com.sn.solr.plugin.rank.RankTableKey;
+
+/**
+ * <code>RankExportHandler</code> exports the complete ranked result set of a 
+ * query in a single request, instead of paging through 
+ * {@link RankComponent} with a growing start. 
+ * 
+ * <p>
+ * Takes the same parameters as {@link RankComponent}, q & fq select the
+ * documents. The matching documents are walked once in rank order by reading
+ * the postings of each value of the {@link RankTable}, each document is 
+ * written as (id, rank field value, rank) while the response is written. 
+ * When several strategies are requested each row also holds the rank of 
+ * every strategy, named as by {@link RankComponent}, e.g. rank_dense.
+ * Only the documents of the current value are buffered, so memory does not 
+ * grow with the number of rows exported. Documents with the same value are 
+ * returned in index order. Documents without a value of the rank field are 
+ * not exported & not counted in numFound.
+ * 
+ * <pre>
+ * &lt;requestHandler name="/rank/export" class="com.sn.solr.plugin.handler.RankExportHandler"/&gt;
+ * </pre>
+ * 
+ * @author Sathiya N Sundararjan
+ * @since 0.3.1
+ */
+public class RankExportHandler extends AppRankHandler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RankExportHandler.class);
+	
+	private static final String RANKS_TAG = "ranks";
+	
+	private static final String NUM_FOUND_TAG = "numFound";
+	
+	private static final String RANK_TAG = "rank";
+	
+	private static final String DEFAULT_QUERY = "*:*";
+	
+	@Override
+	public void handleRequestBody(SolrQueryRequest request, SolrQueryResponse response) throws Exception {
+		long startTime = System.nanoTime();
+		SolrParams params = request.getParams();
+		List<RankStrategy> rankStrategies = RankComponent.getRankStrategies(params);
+		String idField = RankComponent.getIdField(params);
+		String rankField = RankComponent.getRankField(params);
+		SolrQuery.ORDER rankFieldSort = RankComponent.getRankFieldSortOrder(params, rankField);
+		SolrIndexSearcher searcher = request.getSearcher();
+		
+		Query query = QParser.getParser(params.get(CommonParams.Q, DEFAULT_QUERY), params.get(QueryParsing.DEFTYPE), request).getQuery();
+		List<Query> filters = getFilters(request);
+		List<Query> queries = new ArrayList<Query>(filters);
+		queries.add(query);
+		DocSet docs = searcher.getDocSet(queries);
+		RankTable rankTable = SolrHelper.getRankTable(searcher, new RankTableKey(rankField, rankFieldSort, query, filters), docs);
+		
+		response.add(NUM_FOUND_TAG, rankTable.getNumDocs());
+		response.add(RANKS_TAG, new RankIterator(searcher, docs, rankTable, rankStrategies, RankComponent.getNtiles(params), idField, rankField));
+		LOG.info("[RankExportHandler] - Prepared export of {} docs in {}", rankTable.getNumDocs(), AppHelper.getDiffTime(startTime));
+	}
+	
+	private static List<Query> getFilters(SolrQueryRequest request) throws Exception {
+		List<Query> filters = new ArrayList<Query>();
+		String[] fqs = request.getParams().getParams(CommonParams.FQ);
+		if (fqs != null) {
+			for (String fq : fqs) {
+				if (fq != null && fq.trim().length() > 0) {
+					filters.add(QParser.getParser(fq, null, request).getQuery());
+				}
+			}
+		}
+		return filters;
+	}
+	
+	@Override
+	public String getDescription() {
+		return "Exports the ranked result set of a query in rank order";
+	}
+	
+	/**
+	 * Walks the documents of a {@link DocSet} in rank order, one value of the
+	 * {@link RankTable} at a time. Used by the response writer, so rows are 
+	 * only computed as they are written. The postings of a value are read into
+	 * a buffer & closed at once, so nothing is left open if the writer stops 
+	 * before the end.
+	 */
+	private static class RankIterator implements Iterator<NamedList<Object>> {
+		
+		private final SolrIndexSearcher searcher;
+		
+		private final DocSet docs;
+		
+		private final RankTable rankTable;
+		
+		private final List<RankStrategy> rankStrategies;
+		
+		private final int ntiles;
+		
+		private final String idField;
+		
+		private final String rankField;
+		
+		private final SchemaField idSchemaField;
+		
+		private final Set<String> idFields;
+		
+		private int[] buffer = new int[0];
+		
+		private int bufferSize;
+		
+		private int bufferPos;
+		
+		private int pos = -1;
+		
+		private String value;
+		
+		private Number[] ranks;
+		
+		private long ordinal;
+		
+		private int doc = -1;
+		
+		private boolean fetched;
+		
+		RankIterator(SolrIndexSearcher searcher, DocSet docs, RankTable rankTable, List<RankStrategy> rankStrategies, int ntiles, String idField, String rankField) throws IOException {
+			this.searcher = searcher;
+			this.docs = docs;
+			this.rankTable = rankTable;
+			this.rankStrategies = rankStrategies;
+			this.ranks = new Number[rankStrategies.size()];
+			this.ntiles = ntiles;
+			this.idField = idField;
+			this.rankField = rankField;
+			this.idSchemaField = searcher.getSchema().getFieldOrNull(idField);
+			this.idFields = Collections.singleton(idField);
+		}
+		
+		public boolean hasNext() {
+			if (!fetched) {
+				doc = nextDoc();
+				fetched = true;
+			}
+			return doc >= 0;
+		}
+		
+		public NamedList<Object> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			fetched = false;
+			ordinal++;
+			NamedList<Object> row = new SimpleOrderedMap<Object>();
+			row.add(idField, getId(doc));
+			row.add(rankField, value);
+			for (int i = 0; i < ranks.length; i++) {
+				Number rank = rankStrategies.get(i).equals(RankStrategy.ORDINAL) ? ordinal : ranks[i];
+				if (i == 0) {
+					row.add(RANK_TAG, rank);
+				}
+				if (ranks.length > 1) {
+					row.add(RankComponent.getRankTag(rankStrategies.get(i)), rank);
+				}
+			}
+			return row;
+		}
+		
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		private int nextDoc() {
+			while (bufferPos >= bufferSize) {
+				if (++pos >= rankTable.size()) {
+					return -1;
+				}
+				readDocs(rankTable.getTerm(pos));
+				value = rankTable.getValue(pos);
+				for (int i = 0; i < ranks.length; i++) {
+					ranks[i] = RankEngine.computeRank(rankTable, pos, getCountedStrategy(rankStrategies.get(i)), rankTable.getNumDocs(), ntiles);
+				}
+			}
+			return buffer[bufferPos++];
+		}
+		
+		/**
+		 * Reads the matching documents of a term into the buffer, the buffer 
+		 * grows to the largest count of a value.
+		 */
+		private void readDocs(String term) {
+			bufferSize = 0;
+			bufferPos = 0;
+			int[] docIds = new int[32];
+			int[] freqs = new int[32];
+			try {
+				TermDocs termDocs = searcher.getReader().termDocs(new Term(rankField, term));
+				try {
+					int n;
+					while ((n = termDocs.read(docIds, freqs)) > 0) {
+						for (int i = 0; i < n; i++) {
+							if (docs.exists(docIds[i])) {
+								if (bufferSize == buffer.length) {
+									int[] grown = new int[Math.max(32, buffer.length * 2)];
+									System.arraycopy(buffer, 0, grown, 0, bufferSize);
+									buffer = grown;
+								}
+								buffer[bufferSize++] = docIds[i];
+							}
+						}
+					}
+				} finally {
+					termDocs.close();
+				}
+			} catch (IOException e) {
+				throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+			}
+		}
+		
+		/**
+		 * Legacy dense ranking is a dense ranking over the sorted documents.
+		 */
+		@SuppressWarnings("deprecation")
+		private static RankStrategy getCountedStrategy(RankStrategy rankStrategy) {
+			return rankStrategy.equals(RankStrategy.LEGACY_DENSE) ? RankStrategy.DENSE : rankStrategy;
+		}
+		
+		private String getId(int docId) {
+			try {
+				Document d = searcher.doc(docId, idFields);
+				Fieldable f = d.getFieldable(idField);
+				if (f == null) {
+					return null;
+				}
+				return idSchemaField == null ? f.stringValue() : idSchemaField.getType().toExternal(f);
+			} catch (IOException e) {
+				throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+			}
+		}
+	}
+}
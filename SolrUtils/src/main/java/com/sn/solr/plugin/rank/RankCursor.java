@@ -0,0 +1,208 @@
+/*
+ * Copyright 20011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sn.solr.plugin.rank;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.solr.common.util.Base64;
+
+/**
+ * <code>RankCursor</code> carries the ranking state from one page of 
+ * sequentially browsed documents to the next: the rank value & id of the last
+ * document ranked along with the running counters, the number of documents 
+ * ranked so far, the dense rank & the standard rank of the last value. The 
+ * next page is ranked by continuing the counters, the same way 
+ * {@link RankEngine#computeOrdinalBasedRank(java.util.List, long)} & 
+ * {@link RankEngine#computeLegacyDenseRank(org.apache.solr.search.DocList, int, RankValueSource, int[])}
+ * do within a page, so no counts of the rank field are needed.
+ * 
+ * <p>
+ * Only the strategies that depend on the documents ranked before are 
+ * supported, see {@link #supports(RankStrategy)}. Cursors are immutable, 
+ * {@link #next(String, String)} returns the cursor after a document & 
+ * {@link #toString()} the token that is parsed back with {@link #parse(String)}.
+ * 
+ * @author Sathiya N Sundararjan
+ * @since 0.3.1
+ */
+public class RankCursor {
+
+	/**
+	 * Token of the cursor before the first document.
+	 */
+	public static final String START = "*";
+
+	private static final int VERSION = 1;
+
+	private static final RankCursor START_CURSOR = new RankCursor(null, null, 0, 0, 0);
+
+	private final String value;
+
+	private final String id;
+
+	private final long count;
+
+	private final long dense;
+
+	private final long standard;
+
+	private RankCursor(String value, String id, long count, long dense, long standard) {
+		this.value = value;
+		this.id = id;
+		this.count = count;
+		this.dense = dense;
+		this.standard = standard;
+	}
+
+	/**
+	 * Returns the cursor before the first document.
+	 */
+	public static RankCursor start() {
+		return START_CURSOR;
+	}
+
+	/**
+	 * Parses a token returned by {@link #toString()}.
+	 * 
+	 * @param token Cursor token, {@link #START} for the first page.
+	 * @throws IllegalArgumentException If the token is not a valid cursor.
+	 */
+	public static RankCursor parse(String token) {
+		if (token == null || token.equals(START)) {
+			return START_CURSOR;
+		}
+		RankCursor cursor;
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(decode(token)));
+			if (in.readByte() != VERSION) {
+				throw new IllegalArgumentException("Unknown cursor version: " + token);
+			}
+			cursor = new RankCursor(in.readUTF(), in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Invalid cursor: " + token, e);
+		}
+		if (cursor.count < 1 || cursor.dense < 1 || cursor.standard < 1 || cursor.dense > cursor.count || cursor.standard > cursor.count) {
+			throw new IllegalArgumentException("Invalid cursor: " + token);
+		}
+		return cursor;
+	}
+
+	private static byte[] decode(String token) {
+		try {
+			return Base64.base64ToByteArray(token.replace('-', '+').replace('_', '/'));
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Invalid cursor: " + token, e);
+		}
+	}
+
+	/**
+	 * Returns true if the strategy is computed from the documents ranked 
+	 * before, the strategies that need the documents tied with or ranked 
+	 * after a document can not be carried by a cursor.
+	 */
+	@SuppressWarnings("deprecation")
+	public static boolean supports(RankStrategy rankStrategy) {
+		return rankStrategy.equals(RankStrategy.ORDINAL) || rankStrategy.equals(RankStrategy.DENSE) 
+				|| rankStrategy.equals(RankStrategy.LEGACY_DENSE) || rankStrategy.equals(RankStrategy.STANDARD);
+	}
+
+	/**
+	 * Returns the cursor after the passed document, which must come next in 
+	 * rank order.
+	 * 
+	 * @param value Readable rank value of the document.
+	 * @param id Readable id of the document.
+	 * @throws IllegalArgumentException If the value or id is null, documents 
+	 * without a rank value are not ranked by a cursor.
+	 */
+	public RankCursor next(String value, String id) {
+		if (value == null || id == null) {
+			throw new IllegalArgumentException("No rank value or id to continue the cursor from: " + value + ", " + id);
+		}
+		boolean newValue = count == 0 || !value.equals(this.value);
+		return new RankCursor(value, id, count + 1, newValue ? dense + 1 : dense, newValue ? count + 1 : standard);
+	}
+
+	/**
+	 * Rank of the last document of the cursor, null for unsupported strategies
+	 * or before the first document.
+	 */
+	public Number getRank(RankStrategy rankStrategy) {
+		if (count == 0) {
+			return null;
+		}
+		switch (rankStrategy) {
+			case ORDINAL:
+				return count;
+			case DENSE:
+			case LEGACY_DENSE:
+				return dense;
+			case STANDARD:
+				return standard;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Readable rank value of the last document, null before the first document.
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 * Readable id of the last document, null before the first document.
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Number of documents ranked so far.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the token of the cursor, URL safe Base64 of the state.
+	 */
+	public String toString() {
+		if (count == 0) {
+			return START;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(VERSION);
+			out.writeUTF(value);
+			out.writeUTF(id);
+			out.writeLong(count);
+			out.writeLong(dense);
+			out.writeLong(standard);
+			out.close();
+		} catch (IOException e) {
+			//Not thrown by an in memory stream
+			throw new IllegalStateException(e);
+		}
+		return Base64.byteArrayToBase64(bytes.toByteArray(), 0, bytes.size()).replace('+', '-').replace('/', '_');
+	}
+}
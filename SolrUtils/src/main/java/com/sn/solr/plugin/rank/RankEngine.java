@@ -16,18 +16,25 @@
 package com.sn.solr.plugin.rank;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.lucene.document.Document;
 import org.apache.lucene.document.FieldSelector;
 import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocList;
+import org.apache.solr.search.DocSet;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +57,12 @@ import com.sn.solr.plugin.common.Pair;
  * strategies. For facet based ranking logic, the wrapper method 
  * {@link #computeFacetBasedRank(List, RankStrategy)}  can be used.
  * 
+ * <p>
+ * The {@link Map} based implementations are layered on primitive ones that 
+ * take the document count of each distinct value in rank order as an 
+ * <code>int[]</code> & write ranks into a passed array. Callers that already 
+ * hold counts as primitives should use those directly to avoid boxing.
+ * 
  * @author Sathiya N Sundararjan
  * @since 0.1.0
  * @see #computeFacetBasedRank(List, RankStrategy)
@@ -59,6 +72,12 @@ public class RankEngine {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(RankEngine.class);
 	
+	/**
+	 * Number of buckets of {@link RankStrategy#NTILE} when not specified, 
+	 * percentiles.
+	 */
+	public static final int DEFAULT_NTILES = 100;
+	
 	/**
 	 * Wrapper class that computes rank for the ranking strategies that leverages
 	 * facet results to compute the ranks.
@@ -97,6 +116,217 @@ public class RankEngine {
 		return rankMap;
 	}
 
+	/**
+	 * Computes rank of the value at the given position of a {@link RankTable}
+	 * for the facet based ranking strategies. Unlike the list based methods
+	 * this reads the rank directly from the cumulative counts of the table, so
+	 * nothing is computed for values that are not requested.
+	 * 
+	 * @param table {@link RankTable} holding values in rank order.
+	 * @param pos Position of the value in the table.
+	 * @param rankStrategy Strategy identified as defined in {@link RankStrategy}
+	 * @return Computed rank, null if the position is not valid.
+	 */
+	public static Number computeRank(RankTable table, int pos, RankStrategy rankStrategy) {
+		return computeRank(table, pos, rankStrategy, table.getNumDocs(), DEFAULT_NTILES);
+	}
+	
+	/**
+	 * Computes rank of the value at the given position of a {@link RankTable},
+	 * the distribution strategies are computed relative to the passed number 
+	 * of documents. It differs from the documents of the table when the table
+	 * only holds the top values, e.g. when merged from shard histograms.
+	 * 
+	 * @param table {@link RankTable} holding values in rank order.
+	 * @param pos Position of the value in the table.
+	 * @param rankStrategy Strategy identified as defined in {@link RankStrategy}
+	 * @param numDocs Number of ranked documents.
+	 * @param ntiles Number of buckets of {@link RankStrategy#NTILE}.
+	 * @return Computed rank, null if the position is not valid.
+	 */
+	public static Number computeRank(RankTable table, int pos, RankStrategy rankStrategy, int numDocs, int ntiles) {
+		if (pos < 0 || pos >= table.size()) {
+			return null;
+		}
+		if (rankStrategy.equals(RankStrategy.DENSE) || rankStrategy.equals(RankStrategy.ORDINAL)) {
+			return pos + 1;
+		}
+		if (rankStrategy.isDistribution()) {
+			return computeDistributionRank(table.getBetter(pos), table.getCount(pos), numDocs, ntiles, rankStrategy);
+		}
+		return computeCompetitionRank(table.getBetter(pos), table.getCount(pos), rankStrategy);
+	}
+	
+	/**
+	 * Computes an approximate rank of the passed value from a {@link RankSketch},
+	 * off by at most {@link RankSketch#getErrorBound()}.
+	 * 
+	 * @param sketch {@link RankSketch} of the rank field.
+	 * @param value Readable value of the rank field as returned in a document.
+	 * @param order Sort order of the rank field.
+	 * @param rankStrategy Strategy identified as defined in {@link RankStrategy}
+	 * @param ntiles Number of buckets of {@link RankStrategy#NTILE}.
+	 * @return Computed rank, null for a null value.
+	 */
+	public static Number computeRank(RankSketch sketch, String value, SolrQuery.ORDER order, RankStrategy rankStrategy, int ntiles) {
+		int better = sketch.getBetter(value, order);
+		if (better < 0) {
+			return null;
+		}
+		if (rankStrategy.equals(RankStrategy.DENSE)) {
+			return sketch.getDistinctBetter(value, order) + 1;
+		}
+		if (rankStrategy.equals(RankStrategy.ORDINAL)) {
+			return better + 1;
+		}
+		if (rankStrategy.isDistribution()) {
+			return computeDistributionRank(better, sketch.getCount(value), sketch.getNumDocs(), ntiles, rankStrategy);
+		}
+		return computeCompetitionRank(better, sketch.getCount(value), rankStrategy);
+	}
+	
+	/**
+	 * Computes rank for the distribution strategies from the number of 
+	 * documents ranked strictly better, the number of tied documents & the
+	 * number of ranked documents.
+	 * 
+	 * @param better Number of documents ranked strictly better.
+	 * @param ties Number of documents having the same value, including itself.
+	 * @param numDocs Number of ranked documents.
+	 * @param ntiles Number of buckets of {@link RankStrategy#NTILE}.
+	 * @param rankStrategy One of {@link RankStrategy#PERCENT_RANK}, 
+	 * {@link RankStrategy#CUME_DIST} or {@link RankStrategy#NTILE}.
+	 * @return Computed rank, null for other strategies.
+	 */
+	public static Number computeDistributionRank(int better, int ties, int numDocs, int ntiles, RankStrategy rankStrategy) {
+		Number rank = null;
+		switch(rankStrategy){
+			case PERCENT_RANK:
+				rank = numDocs > 1 ? better / (float) (numDocs - 1) : 0f;
+				break;
+			case CUME_DIST:
+				rank = numDocs > 0 ? (better + ties) / (float) numDocs : 0f;
+				break;
+			case NTILE:
+				rank = computeNtile(better, numDocs, ntiles);
+				break;
+		}
+		return rank;
+	}
+	
+	/**
+	 * Returns the bucket of the document at the given position as SQL NTILE,
+	 * the first numDocs % ntiles buckets hold one document more than the 
+	 * others.
+	 * 
+	 * @param row Zero based position of the document in rank order.
+	 * @param numDocs Number of ranked documents.
+	 * @param ntiles Number of buckets.
+	 */
+	public static int computeNtile(int row, int numDocs, int ntiles) {
+		if (numDocs <= 0) {
+			return 1;
+		}
+		row = Math.min(row, numDocs - 1);
+		int size = numDocs / ntiles;
+		int larger = numDocs % ntiles;
+		int boundary = larger * (size + 1);
+		if (row < boundary) {
+			return row / (size + 1) + 1;
+		}
+		return larger + (row - boundary) / size + 1;
+	}
+	
+	/**
+	 * Computes rank for the competition based strategies from the number of 
+	 * documents ranked strictly better & the number of documents tied with the
+	 * value.
+	 * 
+	 * @param better Number of documents ranked strictly better.
+	 * @param ties Number of documents having the same value, including itself.
+	 * @param rankStrategy One of {@link RankStrategy#STANDARD}, 
+	 * {@link RankStrategy#MODIFIED} or {@link RankStrategy#FRACTIONAL}.
+	 * @return Computed rank, null for other strategies.
+	 */
+	public static Number computeCompetitionRank(int better, int ties, RankStrategy rankStrategy) {
+		Number rank = null;
+		switch(rankStrategy){
+			case STANDARD:
+				rank = better + 1;
+				break;
+			case MODIFIED:
+				rank = better + ties;
+				break;
+			case FRACTIONAL:
+				rank = computeFractionalRank(better, ties);
+				break;
+		}
+		return rank;
+	}
+	
+	/**
+	 * Computes rank only for the rank field values present on the current 
+	 * page as identified by {@link RankMethod#LOCAL}. For each distinct value 
+	 * the documents ranked strictly better & the tied documents are counted by 
+	 * intersecting a range & a term query with the query results, so the cost 
+	 * depends on the page size & not on the number of distinct values.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param docs {@link DocSet} of all documents matched by the request.
+	 * @param rankField {@link SchemaField} of the rank field.
+	 * @param order Sort order of the rank field.
+	 * @param values Readable rank field values present on the page.
+	 * @param rankStrategy One of the strategies supported by {@link RankMethod#LOCAL}.
+	 * @return {@link Map} of rank field value & rank.
+	 */
+	public static Map<String, Number> computePageLocalRank(SolrIndexSearcher searcher, DocSet docs, SchemaField rankField, 
+			SolrQuery.ORDER order, Collection<String> values, RankStrategy rankStrategy) throws IOException {
+		LOG.info("Computing page local rank using strategy: {}", rankStrategy.getDescription());
+		Map<String, Number> rankMap = new HashMap<String, Number>();
+		for (Map.Entry<String, int[]> e : computePageLocalCounts(searcher, docs, rankField, order, values).entrySet()) {
+			rankMap.put(e.getKey(), computeCompetitionRank(e.getValue()[0], e.getValue()[1], rankStrategy));
+		}
+		return rankMap;
+	}
+	
+	/**
+	 * Counts the documents ranked strictly better & the tied documents for 
+	 * each distinct value present on the current page, see 
+	 * {@link #computePageLocalRank(SolrIndexSearcher, DocSet, SchemaField, SolrQuery.ORDER, Collection, RankStrategy)}.
+	 * The counts serve every strategy supported by {@link RankMethod#LOCAL}
+	 * through {@link #computeCompetitionRank(int, int, RankStrategy)}.
+	 * 
+	 * @return {@link Map} of rank field value & its better & tied counts.
+	 */
+	public static Map<String, int[]> computePageLocalCounts(SolrIndexSearcher searcher, DocSet docs, SchemaField rankField, 
+			SolrQuery.ORDER order, Collection<String> values) throws IOException {
+		Map<String, int[]> countMap = new HashMap<String, int[]>();
+		FieldType ft = rankField.getType();
+		Filter filter = docs.getTopFilter();
+		for (String value : values) {
+			if (value == null || countMap.containsKey(value)) {
+				continue;
+			}
+			Query betterQuery = order.equals(SolrQuery.ORDER.desc) 
+					? ft.getRangeQuery(null, rankField, value, null, false, true) 
+					: ft.getRangeQuery(null, rankField, null, value, true, false);
+			int better = countMatches(searcher, betterQuery, filter);
+			int ties = countMatches(searcher, ft.getFieldQuery(null, rankField, value), filter);
+			countMap.put(value, new int[]{ better, ties });
+		}
+		return countMap;
+	}
+	
+	/**
+	 * Counts the matches of the query within the filter, the result is not 
+	 * cached so a page full of values does not flood the filter cache.
+	 */
+	private static int countMatches(SolrIndexSearcher searcher, Query query, Filter filter) throws IOException {
+		TotalHitCountCollector collector = new TotalHitCountCollector();
+		searcher.search(query, filter, collector);
+		return collector.getTotalHits();
+	}
+
 	/**
 	 * Provides implementation for Dense ranking ["1223"] as identified by the
 	 * {@link RankStrategy#DENSE}
@@ -105,13 +335,9 @@ public class RankEngine {
 	 * field & respective count.
 	 */
 	public static Map<String, Number> computeDenseRank(List<Pair<String, Number>> pairList) {
-		Map<String, Number> rankMap = new HashMap<String, Number>();
-		int rank = 1;
-		for (Pair<String, Number> p : pairList) {
-			rankMap.put(p.getKey(), rank);
-			rank++;
-		}
-		return rankMap;
+		int[] ranks = new int[pairList.size()];
+		computeDenseRank(toCounts(pairList), ranks);
+		return toRankMap(pairList, ranks);
 	}
 	
 	/**
@@ -122,13 +348,9 @@ public class RankEngine {
 	 * field & respective count.
 	 */
 	public static Map<String, Number> computeStandardRank(List<Pair<String, Number>> pairList) {
-		Map<String, Number> rankMap = new HashMap<String, Number>();
-		int rank = 1;
-		for (Pair<String, Number> p : pairList) {
-			rankMap.put(p.getKey(), rank);
-			rank = rank + p.getValue().intValue();
-		}
-		return rankMap;
+		int[] ranks = new int[pairList.size()];
+		computeStandardRank(toCounts(pairList), ranks);
+		return toRankMap(pairList, ranks);
 	}
 	
 	/**
@@ -139,13 +361,9 @@ public class RankEngine {
 	 * field & respective count.
 	 */
 	public static Map<String, Number> computeModifiedRank(List<Pair<String, Number>> pairList) {
-		Map<String, Number> rankMap = new HashMap<String, Number>();
-		int rank = 0;
-		for (Pair<String, Number> p : pairList) {
-			rank = rank + p.getValue().intValue();
-			rankMap.put(p.getKey(), rank);
-		}
-		return rankMap;
+		int[] ranks = new int[pairList.size()];
+		computeModifiedRank(toCounts(pairList), ranks);
+		return toRankMap(pairList, ranks);
 	}
 	
 	/**
@@ -156,18 +374,9 @@ public class RankEngine {
 	 * field & respective count.
 	 */
 	public static Map<String, Number> computeFractionalRank(List<Pair<String, Number>> pairList) {
-		Map<String, Number> rankMap = new HashMap<String, Number>();
-		Map<String, Number> stdCompRankMap = computeStandardRank(pairList);
-		Map<String, Number> modCompRankMap = computeModifiedRank(pairList);
-		float rank = 1;
-		int stdCompRank = 0, modCompRank = 0;
-		for (Pair<String, Number> p : pairList) {
-			stdCompRank = stdCompRankMap.get(p.getKey()).intValue();
-			modCompRank = modCompRankMap.get(p.getKey()).intValue();
-			rank = (stdCompRank + modCompRank) / 2f;
-			rankMap.put(p.getKey(), rank);
-		}
-		return rankMap;
+		float[] ranks = new float[pairList.size()];
+		computeFractionalRank(toCounts(pairList), ranks);
+		return toRankMap(pairList, ranks);
 	}
 	
 	/**
@@ -181,11 +390,176 @@ public class RankEngine {
 	 */
 	public static Map<String, Number> computeOrdinalBasedRank(List<Pair<String, Number>> pairList, long start) {
 		LOG.info("Computing rank using strategy: {}", RankStrategy.ORDINAL.getDescription());
+		long[] ranks = new long[pairList.size()];
+		computeOrdinalRank(start, ranks);
+		return toRankMap(pairList, ranks);
+	}
+	
+	/**
+	 * Primitive implementation of Dense ranking ["1223"]. 
+	 * 
+	 * @param counts Document count of each distinct value in rank order.
+	 * @param ranks Array the rank of each value is written to, at least as 
+	 * long as counts.
+	 */
+	public static void computeDenseRank(int[] counts, int[] ranks) {
+		for (int i = 0; i < counts.length; i++) {
+			ranks[i] = i + 1;
+		}
+	}
+	
+	/**
+	 * Primitive implementation of Standard competition ranking ["1224"]. 
+	 * 
+	 * @param counts Document count of each distinct value in rank order.
+	 * @param ranks Array the rank of each value is written to, at least as 
+	 * long as counts.
+	 */
+	public static void computeStandardRank(int[] counts, int[] ranks) {
+		int rank = 1;
+		for (int i = 0; i < counts.length; i++) {
+			ranks[i] = rank;
+			rank += counts[i];
+		}
+	}
+	
+	/**
+	 * Primitive implementation of Modified competition ranking ["1334"]. 
+	 * 
+	 * @param counts Document count of each distinct value in rank order.
+	 * @param ranks Array the rank of each value is written to, at least as 
+	 * long as counts.
+	 */
+	public static void computeModifiedRank(int[] counts, int[] ranks) {
+		int rank = 0;
+		for (int i = 0; i < counts.length; i++) {
+			rank += counts[i];
+			ranks[i] = rank;
+		}
+	}
+	
+	/**
+	 * Primitive implementation of Fractional ranking ["1 2.5 2.5 4"], computed
+	 * in a single pass keeping a running count of better documents. 
+	 * 
+	 * @param counts Document count of each distinct value in rank order.
+	 * @param ranks Array the rank of each value is written to, at least as 
+	 * long as counts.
+	 */
+	public static void computeFractionalRank(int[] counts, float[] ranks) {
+		int better = 0;
+		for (int i = 0; i < counts.length; i++) {
+			ranks[i] = computeFractionalRank(better, counts[i]);
+			better += counts[i];
+		}
+	}
+	
+	/**
+	 * Fractional rank of a value is the average of its standard & modified 
+	 * competition rank, ((better + 1) + (better + ties)) / 2, which reduces to
+	 * the running count of better documents plus half of the tied positions. 
+	 * Shared by all the paths computing fractional rank so they agree.
+	 * 
+	 * @param better Number of documents ranked strictly better.
+	 * @param ties Number of documents having the same value, including itself.
+	 */
+	public static float computeFractionalRank(int better, int ties) {
+		return better + (ties + 1) / 2f;
+	}
+	
+	/**
+	 * Primitive implementation of Ordinal ranking ["1234"], fills the array 
+	 * with consecutive ranks following the passed start offset.
+	 * 
+	 * @param start Offset of the first row.
+	 * @param ranks Array the rank of each row is written to.
+	 */
+	public static void computeOrdinalRank(long start, long[] ranks) {
+		for (int i = 0; i < ranks.length; i++) {
+			ranks[i] = start + i + 1;
+		}
+	}
+	
+	/**
+	 * Computes the Ordinal rank ["1234"] of a document from a {@link RankTable}.
+	 * 
+	 * @param table {@link RankTable} holding values in rank order.
+	 * @param pos Position of the value of the document in the table.
+	 * @param tiesBefore Number of documents with the same value ordered before
+	 * the document.
+	 */
+	public static long computeOrdinalRank(RankTable table, int pos, int tiesBefore) {
+		return table.getBetter(pos) + tiesBefore + 1;
+	}
+	
+	/**
+	 * Computes the first row of the ranked documents with a rank of at least 
+	 * the passed rank, the inverse of {@link #computeRank(RankTable, int, RankStrategy, int, int)}.
+	 * Ranks do not decrease in rank order, so the value is found by a binary
+	 * search over the table. Ordinal ranks are the rows themselves & LEGACY_DENSE
+	 * is ranked as DENSE.
+	 * 
+	 * @param table {@link RankTable} holding values in rank order.
+	 * @param rank Rank to find, e.g. 0.5 for a PERCENT_RANK.
+	 * @param rankStrategy Strategy identified as defined in {@link RankStrategy}
+	 * @param ntiles Number of buckets of {@link RankStrategy#NTILE}.
+	 * @return Zero based row, the number of documents of the table if no 
+	 * document is ranked that far.
+	 */
+	@SuppressWarnings("deprecation")
+	public static int computeRow(RankTable table, double rank, RankStrategy rankStrategy, int ntiles) {
+		if (rankStrategy.equals(RankStrategy.ORDINAL)) {
+			return (int) Math.min(Math.max(Math.ceil(rank) - 1, 0), table.getNumDocs());
+		}
+		RankStrategy strategy = rankStrategy.equals(RankStrategy.LEGACY_DENSE) ? RankStrategy.DENSE : rankStrategy;
+		int low = 0;
+		int high = table.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (computeRank(table, mid, strategy, table.getNumDocs(), ntiles).doubleValue() < rank) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low < table.size() ? table.getBetter(low) : table.getNumDocs();
+	}
+	
+	/**
+	 * Copies the count of each {@link Pair} into a primitive array.
+	 */
+	public static int[] toCounts(List<Pair<String, Number>> pairList) {
+		int[] counts = new int[pairList.size()];
+		int i = 0;
+		for (Pair<String, Number> p : pairList) {
+			counts[i++] = p.getValue().intValue();
+		}
+		return counts;
+	}
+	
+	private static Map<String, Number> toRankMap(List<Pair<String, Number>> pairList, int[] ranks) {
+		Map<String, Number> rankMap = new HashMap<String, Number>();
+		int i = 0;
+		for (Pair<String, Number> p : pairList) {
+			rankMap.put(p.getKey(), ranks[i++]);
+		}
+		return rankMap;
+	}
+	
+	private static Map<String, Number> toRankMap(List<Pair<String, Number>> pairList, float[] ranks) {
+		Map<String, Number> rankMap = new HashMap<String, Number>();
+		int i = 0;
+		for (Pair<String, Number> p : pairList) {
+			rankMap.put(p.getKey(), ranks[i++]);
+		}
+		return rankMap;
+	}
+	
+	private static Map<String, Number> toRankMap(List<Pair<String, Number>> pairList, long[] ranks) {
 		Map<String, Number> rankMap = new HashMap<String, Number>();
-		long rank = start;
+		int i = 0;
 		for (Pair<String, Number> p : pairList) {
-			rank++;
-			rankMap.put(p.getKey(), rank);
+			rankMap.put(p.getKey(), ranks[i++]);
 		}
 		return rankMap;
 	}
@@ -195,10 +569,12 @@ public class RankEngine {
 	 * {@link RankStrategy#LEGACY_DENSE} the difference is that this
 	 * implementation is computed without using facet results so this will 
 	 * noticeably slower than computing rank based on facets
-	 * use {@link RankStrategy#DENSE}. Besides this implementation might cause 
-	 * lot of cache evictions putting stress on memory. 
+	 * use {@link RankStrategy#DENSE}. Rank values are read through 
+	 * {@link RankValueSource}, only the id of the documents on the requested
+	 * page is loaded.
 	 *
 	 * @see #computeDenseRank(List)
+	 * @see #computeLegacyDenseRank(ResponseBuilder, String, int, int)
 	 * 
 	 * @param pairList List of {@link Pair} objects that holds the value of rank 
 	 * field & respective count.
@@ -219,31 +595,71 @@ public class RankEngine {
 		if (_rows != null & AppHelper.isInteger(_rows))
 			rows = new Integer(_rows);
 
-		LOG.info("Computing rank using strategy: {}", RankStrategy.ORDINAL.getDescription());
-		FieldSelector fs = new MapFieldSelector(new String[] { idField, rankField });
+		DocList docs = getLegacyDenseDocList(rb, start, rows);
+		int[] ranks = new int[Math.max(0, docs.size() - start)];
+		computeLegacyDenseRank(docs, start, RankValueSource.create(searcher, searcher.getSchema().getField(rankField)), ranks);
+		FieldSelector fs = new MapFieldSelector(new String[] { idField });
 		Map<String, Number> rankMap = new HashMap<String, Number>();
-		DocList docs = searcher.getDocList(rb.getQuery(), rb.getFilters(), rb.getSortSpec().getSort(), 0, start + rows, 0);
-		int denseRank = 1;
-		int _CurrScore = 0;
-		int _PrevScore = 0;
 		int i = 0;
-		for (DocIterator it = docs.iterator(); it.hasNext();) {
-			Document doc = searcher.doc(it.nextDoc(), fs);
-			_CurrScore = new Integer(doc.get(rankField));
-			if (i == 0) {
-				_PrevScore = _CurrScore;
+		for (DocIterator it = docs.iterator(); it.hasNext(); i++) {
+			int docId = it.nextDoc();
+			if (i >= start) {
+				rankMap.put(searcher.doc(docId, fs).get(idField), ranks[i - start]);
 			}
-			if (_PrevScore != _CurrScore) {
-				_PrevScore = _CurrScore;
+		}
+		return rankMap;
+	}
+	
+	/**
+	 * Computes {@link RankStrategy#LEGACY_DENSE} rank for the requested page 
+	 * by walking the first start + rows documents of the result & reading 
+	 * their rank values from the per segment entries of the 
+	 * {@link org.apache.lucene.search.FieldCache}.
+	 * 
+	 * @param rb {@link ResponseBuilder} of the current request.
+	 * @param rankField {@link String} rank field identifier string
+	 * @param start Offset of the requested page.
+	 * @param rows Number of rows on the requested page.
+	 * @return Rank of each document on the page in result order.
+	 */
+	public static int[] computeLegacyDenseRank(ResponseBuilder rb, String rankField, int start, int rows) throws IOException {
+		SolrIndexSearcher searcher = rb.req.getSearcher();
+		DocList docs = getLegacyDenseDocList(rb, start, rows);
+		int[] ranks = new int[Math.max(0, docs.size() - start)];
+		computeLegacyDenseRank(docs, start, RankValueSource.create(searcher, searcher.getSchema().getField(rankField)), ranks);
+		return ranks;
+	}
+	
+	/**
+	 * Primitive implementation of {@link RankStrategy#LEGACY_DENSE}, the dense
+	 * rank is incremented every time the rank value changes while walking the
+	 * sorted documents.
+	 * 
+	 * @param docs {@link DocList} of the documents from the start of the result.
+	 * @param start Number of leading documents that are only counted.
+	 * @param values {@link RankValueSource} of the rank field.
+	 * @param ranks Array the rank of each document from start is written to.
+	 */
+	public static void computeLegacyDenseRank(DocList docs, int start, RankValueSource values, int[] ranks) {
+		int denseRank = 1;
+		int prevDoc = -1;
+		int i = 0;
+		for (DocIterator it = docs.iterator(); it.hasNext(); i++) {
+			int doc = it.nextDoc();
+			if (i > 0 && !values.isSameValue(prevDoc, doc)) {
 				denseRank++;
 			}
-			if(i >= start){
-				rankMap.put(doc.get(idField), denseRank);
+			prevDoc = doc;
+			if (i >= start) {
+				ranks[i - start] = denseRank;
 			}
-			i++;
 		}
-
-		return rankMap;
+	}
+	
+	@SuppressWarnings("deprecation")
+	private static DocList getLegacyDenseDocList(ResponseBuilder rb, int start, int rows) throws IOException {
+		LOG.info("Computing rank using strategy: {}", RankStrategy.LEGACY_DENSE.getDescription());
+		return rb.req.getSearcher().getDocList(rb.getQuery(), rb.getFilters(), rb.getSortSpec().getSort(), 0, start + rows, 0);
 	}
 	
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 20011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sn.solr.plugin.rank;
+
+/**
+ * <code>RankMethod</code> defines how the counts needed by the facet based 
+ * ranking strategies are gathered. Similar to facet.method, the method does 
+ * not change the computed ranks, only the cost of computing them.
+ * 
+ * <p>
+ * String paramter retruned by {@link #getKey()} hold the key by which a 
+ * method can be picked.
+ * 
+ * @author Sathiya N Sundararjan
+ * @since 0.3.1
+ * @see #getKey()
+ * @see #getByKey(String)
+ */
+public enum RankMethod {
+	
+	/**
+	 * Counts every distinct value of the rank field, either through facets or 
+	 * the per searcher rank cache. Cost grows with rank field cardinality.
+	 */
+	FACET ( "facet", "Rank field counts for every distinct value." ),
+	/**
+	 * Counts only the values present on the requested page, by intersecting 
+	 * range & term queries with the query results. Cost grows with page size. 
+	 * Can not be used for {@link RankStrategy#DENSE} as the number of distinct 
+	 * better values is not known without enumerating them.
+	 */
+	LOCAL ( "local", "Page local counts of better & tied documents." ),
+	/**
+	 * Counts only the values from the best value down to the worst value on
+	 * the requested page, walking the term dictionary of the rank field & 
+	 * stopping at the page boundary. Cost grows with the depth of the page, 
+	 * top pages are nearly free. Rank fields whose indexed terms do not sort
+	 * in value order are counted as with {@link #FACET}. Can not be used for
+	 * the distribution strategies, see {@link RankStrategy#isDistribution()}.
+	 */
+	BOUNDED ( "bounded", "Counts of the values down to the last value on the page." );
+	
+	private String key;
+	
+	private String description;
+	
+	private RankMethod(String key, String description) {
+		this.key = key;
+		this.description = description;
+	}
+	
+	/**
+	 * Holds #{@link String} key of current rank method.  
+	 * @see #getByKey(String) to get method by passing key. 
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Provides a description of the current rank method. 
+	 */
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * Returns true if the method can compute ranks for the passed strategy.
+	 * 
+	 * @param rankStrategy Strategy identified as defined in {@link RankStrategy}
+	 */
+	public boolean supports(RankStrategy rankStrategy) {
+		switch(this){
+			case LOCAL:
+				return rankStrategy.equals(RankStrategy.STANDARD) || rankStrategy.equals(RankStrategy.MODIFIED) 
+						|| rankStrategy.equals(RankStrategy.FRACTIONAL);
+			case BOUNDED:
+				//Distribution strategies need the count of all the documents
+				return !rankStrategy.isDistribution();
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * @param String key to get the rank method
+	 * @see #getKey()
+	 */
+	public static RankMethod getByKey(String key){
+		for(RankMethod r : values()){
+			if(r.getKey().equals(key)){
+				return r;
+			}
+		}
+		return null;
+	}
+
+}
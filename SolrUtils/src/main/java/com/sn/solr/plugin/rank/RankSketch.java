@@ -0,0 +1,271 @@
+/*
+ * Copyright 20011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sn.solr.plugin.rank;
+
+import java.util.Arrays;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.schema.FieldType;
+
+/**
+ * <code>RankSketch</code> is a compact quantile summary of a rank field, an
+ * approximate alternative to {@link RankTable} for fields with too many 
+ * distinct values to keep all of them. Only a sample of the values is kept
+ * along with the exact number of documents & distinct values before each of 
+ * them, ranks of the values in between are estimated.
+ * 
+ * <p>
+ * The summary is built from the values in ascending index order. A value is
+ * kept whenever the documents since the last kept value would exceed the 
+ * error bound, epsilon times the number of documents, so at most 2 / epsilon
+ * values are kept whatever the cardinality of the field & the rank of any 
+ * value is off by at most the error bound. Kept values, which include every
+ * value holding more documents than the bound, are ranked exactly. Both sort
+ * orders are answered from the same summary by a binary search.
+ *
+ * <p>
+ * Summaries are not mergeable. The documents before a value can be summed 
+ * over shards within the sum of their bounds, but the distinct values 
+ * before it cannot since shards share values, so dense ranks would lose 
+ * their bound. Distributed requests are ranked exactly instead from the 
+ * histograms of the top documents of each shard, which hold at most start 
+ * + rows values per shard whatever the cardinality of the field.
+ *
+ * @author Sathiya N Sundararjan
+ * @since 0.3.1
+ * @see RankEngine#computeRank(RankSketch, String, SolrQuery.ORDER, RankStrategy, int)
+ */
+public class RankSketch {
+
+	private final FieldType fieldType;
+
+	private final double epsilon;
+
+	private final int errorBound;
+
+	private final String[] terms;
+
+	private final int[] counts;
+
+	private final int[] better;
+
+	private final int[] distinct;
+
+	private final int numDocs;
+
+	private final int numValues;
+
+	private RankSketch(Builder builder) {
+		this.fieldType = builder.fieldType;
+		this.epsilon = builder.epsilon;
+		this.errorBound = builder.errorBound;
+		this.terms = Arrays.copyOf(builder.terms, builder.size);
+		this.counts = Arrays.copyOf(builder.counts, builder.size);
+		this.better = Arrays.copyOf(builder.better, builder.size);
+		this.distinct = Arrays.copyOf(builder.distinct, builder.size);
+		this.numDocs = builder.numDocs;
+		this.numValues = builder.numValues;
+	}
+
+	/**
+	 * Returns a {@link Builder} for a summary of at most <code>maxDocs</code>
+	 * documents.
+	 *
+	 * @param fieldType {@link FieldType} of the rank field.
+	 * @param maxDocs Upper bound of the number of documents to be added, the 
+	 * error bound is relative to it.
+	 * @param epsilon Relative error bound, between 0 & 1.
+	 */
+	public static Builder builder(FieldType fieldType, int maxDocs, double epsilon) {
+		return new Builder(fieldType, maxDocs, epsilon);
+	}
+
+	/**
+	 * Estimated number of documents ranked strictly better than the passed 
+	 * value, -1 for a null value.
+	 *
+	 * @param value Readable value of the rank field as returned in a document.
+	 * @param order Sort order of the rank field.
+	 */
+	public int getBetter(String value, SolrQuery.ORDER order) {
+		if (value == null) {
+			return -1;
+		}
+		String term = fieldType.toInternal(value);
+		int pos = Arrays.binarySearch(terms, term);
+		int ascending;
+		int count;
+		if (pos >= 0) {
+			ascending = better[pos];
+			count = counts[pos];
+		} else {
+			//Value in between kept values, take the middle of the possible ranks
+			pos = -pos - 1;
+			int low = pos > 0 ? better[pos - 1] + counts[pos - 1] : 0;
+			int high = Math.max(low, (pos < terms.length ? better[pos] : numDocs) - 1);
+			ascending = (low + high) / 2;
+			count = 1;
+		}
+		return order.equals(SolrQuery.ORDER.desc) ? Math.max(0, numDocs - ascending - count) : ascending;
+	}
+
+	/**
+	 * Number of documents having the passed value if it is kept, 1 otherwise.
+	 *
+	 * @param value Readable value of the rank field as returned in a document.
+	 */
+	public int getCount(String value) {
+		int pos = value == null ? -1 : Arrays.binarySearch(terms, fieldType.toInternal(value));
+		return pos < 0 ? 1 : counts[pos];
+	}
+
+	/**
+	 * Estimated number of distinct values ranked strictly better than the 
+	 * passed value, -1 for a null value.
+	 *
+	 * @param value Readable value of the rank field as returned in a document.
+	 * @param order Sort order of the rank field.
+	 */
+	public int getDistinctBetter(String value, SolrQuery.ORDER order) {
+		if (value == null) {
+			return -1;
+		}
+		int pos = Arrays.binarySearch(terms, fieldType.toInternal(value));
+		int ascending;
+		if (pos >= 0) {
+			ascending = distinct[pos];
+		} else {
+			pos = -pos - 1;
+			int low = pos > 0 ? distinct[pos - 1] + 1 : 0;
+			int high = Math.max(low, (pos < terms.length ? distinct[pos] : numValues) - 1);
+			ascending = (low + high) / 2;
+		}
+		return order.equals(SolrQuery.ORDER.desc) ? Math.max(0, numValues - ascending - 1) : ascending;
+	}
+
+	/**
+	 * Relative error bound the summary was built with.
+	 */
+	public double getEpsilon() {
+		return epsilon;
+	}
+
+	/**
+	 * Maximum difference in documents between an estimated & the exact number
+	 * of better documents, or distinct values.
+	 */
+	public int getErrorBound() {
+		return errorBound;
+	}
+
+	/**
+	 * Total number of documents counted in the summary.
+	 */
+	public int getNumDocs() {
+		return numDocs;
+	}
+
+	/**
+	 * Number of distinct values counted in the summary.
+	 */
+	public int getNumValues() {
+		return numValues;
+	}
+
+	/**
+	 * Number of values kept in the summary.
+	 */
+	public int size() {
+		return terms.length;
+	}
+
+	public String toString() {
+		return "RankSketch{size=" + terms.length + ", numDocs=" + numDocs + ", numValues=" + numValues + ", errorBound=" + errorBound + "}";
+	}
+
+	/**
+	 * Builds a {@link RankSketch} from the values of the rank field added in
+	 * ascending index order, only the kept values are held in memory.
+	 */
+	public static class Builder {
+
+		private final FieldType fieldType;
+
+		private final double epsilon;
+
+		private final int errorBound;
+
+		private String[] terms = new String[16];
+
+		private int[] counts = new int[16];
+
+		private int[] better = new int[16];
+
+		private int[] distinct = new int[16];
+
+		private int size;
+
+		private int numDocs;
+
+		private int numValues;
+
+		private int pending;
+
+		private Builder(FieldType fieldType, int maxDocs, double epsilon) {
+			if (!(epsilon > 0 && epsilon < 1)) {
+				throw new IllegalArgumentException("epsilon must be between 0 & 1: " + epsilon);
+			}
+			this.fieldType = fieldType;
+			this.epsilon = epsilon;
+			this.errorBound = Math.max(1, (int) (epsilon * maxDocs));
+		}
+
+		/**
+		 * Adds the next value, values must be added in ascending index order.
+		 *
+		 * @param term Indexed term of the value.
+		 * @param count Number of documents having the value.
+		 */
+		public Builder add(String term, int count) {
+			if (count <= 0) {
+				return this;
+			}
+			if (pending + count > errorBound) {
+				if (size == terms.length) {
+					terms = Arrays.copyOf(terms, size * 2);
+					counts = Arrays.copyOf(counts, size * 2);
+					better = Arrays.copyOf(better, size * 2);
+					distinct = Arrays.copyOf(distinct, size * 2);
+				}
+				terms[size] = term;
+				counts[size] = count;
+				better[size] = numDocs;
+				distinct[size] = numValues;
+				size++;
+				pending = 0;
+			} else {
+				pending += count;
+			}
+			numDocs += count;
+			numValues++;
+			return this;
+		}
+
+		public RankSketch build() {
+			return new RankSketch(this);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 20011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sn.solr.plugin.rank;
+
+/**
+ * <code>RankSketchKey</code> identifies a {@link RankSketch} in the per 
+ * searcher rank cache, next to the tables identified by {@link RankTableKey}.
+ * A sketch answers both sort orders, so the order of the wrapped table key is
+ * always ascending.
+ * 
+ * @author Sathiya N Sundararjan
+ * @since 0.3.1
+ * @see RankTableRegenerator
+ */
+public class RankSketchKey {
+
+	private final RankTableKey tableKey;
+
+	private final double epsilon;
+
+	public RankSketchKey(RankTableKey tableKey, double epsilon) {
+		this.tableKey = tableKey;
+		this.epsilon = epsilon;
+	}
+
+	public RankTableKey getTableKey() {
+		return tableKey;
+	}
+
+	public double getEpsilon() {
+		return epsilon;
+	}
+
+	@Override
+	public int hashCode() {
+		long bits = Double.doubleToLongBits(epsilon);
+		return 31 * tableKey.hashCode() + (int) (bits ^ (bits >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof RankSketchKey)) {
+			return false;
+		}
+		RankSketchKey k = (RankSketchKey) o;
+		return epsilon == k.epsilon && tableKey.equals(k.tableKey);
+	}
+
+	public String toString() {
+		return "RankSketchKey{" + tableKey + ", epsilon=" + epsilon + "}";
+	}
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 20011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sn.solr.plugin.rank;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.schema.FieldType;
+
+/**
+ * <code>RankSnapshot</code> is a {@link RankTable} persisted to a binary file
+ * for one commit generation of the index. The file is memory mapped when 
+ * loaded, the values, counts & terms of the table stay off the Java heap & 
+ * are read in place by the tables returned by {@link #getTable(SolrQuery.ORDER)}.
+ * A single snapshot serves both sort orders.
+ * 
+ * <p>
+ * The file holds a header followed by the values in ascending order: the 
+ * keys of numeric fields, the count & the number of better documents of each
+ * value, then the offsets & characters of the indexed terms. The 
+ * {@link SegmentHistogram}s the table was merged from follow, by segment 
+ * name, so a snapshot of an older generation is brought up to date by 
+ * counting only the segments that changed since, see 
+ * {@link #getHistograms()}. Files are limited to 2GB by the mapping.
+ * 
+ * <p>
+ * A mapping can not be released explicitly, it is unmapped once the snapshot
+ * & its tables are garbage collected, i.e. once the tables are evicted from 
+ * the rank cache or the searcher holding them is closed. A deleted snapshot 
+ * stays readable while mapped, on platforms not allowing the deletion of a 
+ * mapped file it is deleted with the next snapshot written.
+ * 
+ * @author Sathiya N Sundararjan
+ * @since 0.3.1
+ * @see RankSnapshotListener
+ */
+public class RankSnapshot {
+
+	private static final int MAGIC = 0x524e4b31;
+
+	private static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 40;
+
+	private static final String SUFFIX = ".rank";
+
+	private final FieldType fieldType;
+
+	private final long generation;
+
+	private final boolean numeric;
+
+	private final int size;
+
+	private final int numDocs;
+
+	private final LongBuffer keys;
+
+	private final IntBuffer counts;
+
+	private final IntBuffer better;
+
+	private final IntBuffer termOffsets;
+
+	private final CharBuffer termChars;
+
+	private final ByteBuffer segments;
+
+	private RankSnapshot(FieldType fieldType, ByteBuffer buffer) throws IOException {
+		this.fieldType = fieldType;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a rank snapshot");
+		}
+		this.generation = buffer.getLong(8);
+		this.numeric = buffer.getInt(16) != 0;
+		this.size = buffer.getInt(20);
+		this.numDocs = buffer.getInt(24);
+		int chars = buffer.getInt(28);
+		int segmentBytes = buffer.getInt(32);
+		long length = HEADER_SIZE + (numeric ? 8L * size : 0) + 4L * size * 3 + 4 + 2L * chars + segmentBytes;
+		if (buffer.capacity() != length) {
+			throw new IOException("Truncated rank snapshot, expected " + length + " bytes but found " + buffer.capacity());
+		}
+		int offset = HEADER_SIZE;
+		this.keys = numeric ? slice(buffer, offset).asLongBuffer() : null;
+		offset += numeric ? 8 * size : 0;
+		this.counts = slice(buffer, offset).asIntBuffer();
+		offset += 4 * size;
+		this.better = slice(buffer, offset).asIntBuffer();
+		offset += 4 * size;
+		this.termOffsets = slice(buffer, offset).asIntBuffer();
+		offset += 4 * (size + 1);
+		this.termChars = slice(buffer, offset).asCharBuffer();
+		offset += 2 * chars;
+		this.segments = slice(buffer, offset);
+	}
+
+	/**
+	 * Returns the snapshot file of a field for a commit generation.
+	 *
+	 * @param dir Directory of the snapshots.
+	 * @param fieldName Name of the rank field.
+	 * @param generation Commit generation of the index.
+	 */
+	public static File getFile(File dir, String fieldName, long generation) {
+		return new File(dir, fieldName + "." + generation + SUFFIX);
+	}
+
+	/**
+	 * Returns true if the passed file is a snapshot of the field, of any 
+	 * generation.
+	 */
+	public static boolean isFile(File file, String fieldName) {
+		String name = file.getName();
+		return name.startsWith(fieldName + ".") && name.endsWith(SUFFIX) 
+				&& name.substring(fieldName.length() + 1, name.length() - SUFFIX.length()).matches("\\d+");
+	}
+
+	/**
+	 * Returns the commit generation of a snapshot file of the field, -1 if 
+	 * the file is not a snapshot of the field.
+	 */
+	public static long getGeneration(File file, String fieldName) {
+		if (!isFile(file, fieldName)) {
+			return -1;
+		}
+		String name = file.getName();
+		return Long.parseLong(name.substring(fieldName.length() + 1, name.length() - SUFFIX.length()));
+	}
+
+	/**
+	 * Memory maps a snapshot written by {@link #write(File, RankTable, long)}.
+	 *
+	 * @param file Snapshot file.
+	 * @param fieldType {@link FieldType} of the rank field.
+	 * @throws IOException If the file can not be read or is not a complete 
+	 * snapshot.
+	 */
+	public static RankSnapshot load(File file, FieldType fieldType) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			return new RankSnapshot(fieldType, buffer);
+		} finally {
+			//The mapping stays valid once the file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes the table to the passed file, through a temporary file renamed
+	 * once complete so a partial snapshot is never loaded.
+	 *
+	 * @param file Snapshot file.
+	 * @param table {@link RankTable} to be written, in either order.
+	 * @param generation Commit generation of the index the table was counted on.
+	 * @throws IOException
+	 */
+	public static void write(File file, RankTable table, long generation) throws IOException {
+		int size = table.size();
+		boolean desc = table.getOrder().equals(SolrQuery.ORDER.desc);
+		int chars = 0;
+		for (int i = 0; i < size; i++) {
+			chars += table.getTerm(i).length();
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(generation);
+			out.writeInt(table.isNumeric() ? 1 : 0);
+			out.writeInt(size);
+			out.writeInt(table.getNumDocs());
+			out.writeInt(chars);
+			out.writeInt(getSegmentBytes(table.getHistograms()));
+			out.writeInt(0);
+			if (table.isNumeric()) {
+				for (int i = 0; i < size; i++) {
+					out.writeLong(table.getKey(desc ? size - 1 - i : i));
+				}
+			}
+			int better = 0;
+			for (int i = 0; i < size; i++) {
+				out.writeInt(table.getCount(desc ? size - 1 - i : i));
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeInt(better);
+				better += table.getCount(desc ? size - 1 - i : i);
+			}
+			int offset = 0;
+			for (int i = 0; i < size; i++) {
+				out.writeInt(offset);
+				offset += table.getTerm(desc ? size - 1 - i : i).length();
+			}
+			out.writeInt(offset);
+			for (int i = 0; i < size; i++) {
+				out.writeChars(table.getTerm(desc ? size - 1 - i : i));
+			}
+			writeSegments(out, table.getHistograms());
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Could not rename " + tmp + " to " + file);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes of the segment histograms of a table, 0 if
+	 * they can not all be identified by segment name.
+	 */
+	private static int getSegmentBytes(List<SegmentHistogram> histograms) {
+		if (!isPersistable(histograms)) {
+			return 0;
+		}
+		int bytes = 4;
+		for (SegmentHistogram histogram : histograms) {
+			bytes += 4 + 2 * histogram.getSegmentName().length() + 8;
+			bytes += 12 * histogram.getKeys().length;
+			for (String term : histogram.getTerms()) {
+				bytes += 4 + 2 * term.length();
+			}
+		}
+		return bytes;
+	}
+
+	private static boolean isPersistable(List<SegmentHistogram> histograms) {
+		if (histograms == null) {
+			return false;
+		}
+		for (SegmentHistogram histogram : histograms) {
+			if (histogram.getSegmentName() == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeSegments(DataOutputStream out, List<SegmentHistogram> histograms) throws IOException {
+		if (!isPersistable(histograms)) {
+			return;
+		}
+		out.writeInt(histograms.size());
+		for (SegmentHistogram histogram : histograms) {
+			out.writeInt(histogram.getSegmentName().length());
+			out.writeChars(histogram.getSegmentName());
+			out.writeInt(histogram.getNumDeleted());
+			out.writeInt(histogram.getKeys().length);
+			for (long key : histogram.getKeys()) {
+				out.writeLong(key);
+			}
+			for (int count : histogram.getCounts()) {
+				out.writeInt(count);
+			}
+			for (String term : histogram.getTerms()) {
+				out.writeInt(term.length());
+				out.writeChars(term);
+			}
+		}
+	}
+
+	/**
+	 * Returns the segment histograms the table was merged from, read onto 
+	 * the heap, null if the snapshot holds none. Reused by the first table 
+	 * counted on a newer commit, only new or changed segments are counted.
+	 */
+	public List<SegmentHistogram> getHistograms() {
+		if (segments.capacity() == 0) {
+			return null;
+		}
+		ByteBuffer in = segments.duplicate();
+		int numSegments = in.getInt();
+		List<SegmentHistogram> histograms = new ArrayList<SegmentHistogram>(numSegments);
+		for (int i = 0; i < numSegments; i++) {
+			String name = readString(in);
+			int numDeleted = in.getInt();
+			int length = in.getInt();
+			long[] keys = new long[length];
+			int[] counts = new int[length];
+			String[] terms = new String[length];
+			for (int j = 0; j < length; j++) {
+				keys[j] = in.getLong();
+			}
+			for (int j = 0; j < length; j++) {
+				counts[j] = in.getInt();
+			}
+			for (int j = 0; j < length; j++) {
+				terms[j] = readString(in);
+			}
+			histograms.add(SegmentHistogram.restore(name, numDeleted, keys, terms, counts));
+		}
+		return histograms;
+	}
+
+	private static String readString(ByteBuffer in) {
+		char[] chars = new char[in.getInt()];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = in.getChar();
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Returns a table over the mapped values in the passed order.
+	 */
+	public RankTable getTable(SolrQuery.ORDER order) {
+		return new MappedTable(this, order);
+	}
+
+	/**
+	 * Commit generation of the index the snapshot was counted on.
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Returns true if the table is read from a memory mapped snapshot.
+	 */
+	public static boolean isMapped(Object table) {
+		return table instanceof MappedTable;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int offset) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		return duplicate.slice();
+	}
+
+	/**
+	 * Table reading the values of a snapshot in place, positions in 
+	 * descending order are mapped onto the ascending values of the file.
+	 */
+	private static class MappedTable extends RankTable {
+
+		private final RankSnapshot snapshot;
+
+		private final boolean desc;
+
+		MappedTable(RankSnapshot snapshot, SolrQuery.ORDER order) {
+			super(snapshot.fieldType, order);
+			this.snapshot = snapshot;
+			this.desc = order.equals(SolrQuery.ORDER.desc);
+		}
+
+		private int toAscending(int pos) {
+			return desc ? snapshot.size - 1 - pos : pos;
+		}
+
+		public boolean isNumeric() {
+			return snapshot.numeric;
+		}
+
+		public int size() {
+			return snapshot.size;
+		}
+
+		public int getNumDocs() {
+			return snapshot.numDocs;
+		}
+
+		public long getKey(int pos) {
+			return snapshot.keys.get(toAscending(pos));
+		}
+
+		public String getTerm(int pos) {
+			int i = toAscending(pos);
+			int start = snapshot.termOffsets.get(i);
+			char[] chars = new char[snapshot.termOffsets.get(i + 1) - start];
+			for (int j = 0; j < chars.length; j++) {
+				chars[j] = snapshot.termChars.get(start + j);
+			}
+			return new String(chars);
+		}
+
+		public int getCount(int pos) {
+			return snapshot.counts.get(toAscending(pos));
+		}
+
+		public int getBetter(int pos) {
+			int i = toAscending(pos);
+			return desc ? snapshot.numDocs - snapshot.better.get(i) - snapshot.counts.get(i) : snapshot.better.get(i);
+		}
+
+		/**
+		 * Reads the histograms from the snapshot on each call, so nothing is 
+		 * kept on the heap while the table is cached.
+		 */
+		public List<SegmentHistogram> getHistograms() {
+			return snapshot.getHistograms();
+		}
+	}
+}
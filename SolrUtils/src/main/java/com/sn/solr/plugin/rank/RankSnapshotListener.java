@@ -0,0 +1,291 @@
+/*
+ * Copyright 20011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sn.solr.plugin.rank;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.SolrEventListener;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sn.solr.plugin.common.AppHelper;
+import com.sn.solr.plugin.common.SolrHelper;
+
+/**
+ * <code>RankSnapshotListener</code> keeps a {@link RankSnapshot} of the 
+ * configured rank fields next to the index & puts the rank tables of the 
+ * fields into the rank cache of each new searcher. After a restart or core 
+ * reload the first searcher memory maps the snapshot of its commit instead of
+ * counting the rank fields again. If the latest snapshot is of an older 
+ * commit, only the segments that changed since are counted, the histograms 
+ * of the others are read from the snapshot, & a snapshot of the current 
+ * commit is written & mapped.
+ * 
+ * <p>
+ * After a commit the tables are not counted from scratch, the histograms of
+ * the segments shared with the current searcher are taken from the table 
+ * already in the rank cache, either regenerated by the 
+ * {@link RankTableRegenerator} or put by this listener on the previous 
+ * commit, mapped tables read them from their snapshot. The snapshot is 
+ * written for every "interval" commit generations (default 10) & by the 
+ * first searcher when there is no snapshot of its generation, snapshots of 
+ * other generations are deleted once a snapshot is written or mapped.
+ * 
+ * <p>
+ * The snapshots cover every document of the index, only the rank cache key
+ * of q=*:* with no filters ({@link #createKey(String, SolrQuery.ORDER)}) is
+ * served from them, in both sort orders. Requests with other queries or 
+ * filters count their own tables. Register the listener for both events, 
+ * along with the rank cache:
+ * <pre>
+ * &lt;listener event="firstSearcher" class="com.sn.solr.plugin.rank.RankSnapshotListener"&gt;
+ *   &lt;str name="fields"&gt;SCORE,TSCORE&lt;/str&gt;
+ * &lt;/listener&gt;
+ * &lt;listener event="newSearcher" class="com.sn.solr.plugin.rank.RankSnapshotListener"&gt;
+ *   &lt;str name="fields"&gt;SCORE,TSCORE&lt;/str&gt;
+ *   &lt;int name="interval"&gt;10&lt;/int&gt;
+ * &lt;/listener&gt;
+ * </pre>
+ * Snapshots are kept in the rank directory of the data directory unless a
+ * "dir" argument is set.
+ * 
+ * @author Sathiya N Sundararjan
+ * @since 0.3.1
+ * @see RankTableRegenerator
+ */
+public class RankSnapshotListener implements SolrEventListener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RankSnapshotListener.class);
+
+	public static final String INIT_FIELDS = "fields";
+
+	public static final String INIT_DIR = "dir";
+
+	public static final String INIT_INTERVAL = "interval";
+
+	private static final String DEFAULT_DIR = "rank";
+
+	private static final int DEFAULT_INTERVAL = 10;
+
+	private final List<String> fields = new ArrayList<String>();
+
+	private String dir;
+
+	private int interval = DEFAULT_INTERVAL;
+
+	@SuppressWarnings("rawtypes")
+	public void init(NamedList args) {
+		SolrParams params = SolrParams.toSolrParams(args);
+		String _fields = params.get(INIT_FIELDS);
+		if (_fields != null) {
+			for (String field : _fields.split(",")) {
+				if (field.trim().length() > 0) {
+					fields.add(field.trim());
+				}
+			}
+		}
+		dir = params.get(INIT_DIR);
+		interval = Math.max(1, params.getInt(INIT_INTERVAL, DEFAULT_INTERVAL));
+	}
+
+	public void postCommit() {
+	}
+
+	public void newSearcher(SolrIndexSearcher newSearcher, SolrIndexSearcher currentSearcher) {
+		SolrCache<RankTableKey, RankTable> cache = getRankCache(newSearcher);
+		if (cache == null) {
+			LOG.warn("No {} configured, rank snapshots are not loaded", SolrHelper.RANK_CACHE);
+			return;
+		}
+		SolrCache<RankTableKey, RankTable> currentCache = currentSearcher != null ? getRankCache(currentSearcher) : null;
+		File snapshotDir = new File(dir != null ? dir : newSearcher.getCore().getDataDir() + DEFAULT_DIR);
+		long generation = getGeneration(newSearcher);
+		for (String field : fields) {
+			long startTime = System.nanoTime();
+			RankTableKey ascKey = createKey(field, SolrQuery.ORDER.asc);
+			RankTableKey descKey = createKey(field, SolrQuery.ORDER.desc);
+			try {
+				RankTable asc = cache.get(ascKey);
+				RankTable previous = asc == null ? getPrevious(currentCache, ascKey, descKey) : null;
+				if (asc == null && previous == null) {
+					//Nothing counted in memory, start from the latest snapshot
+					RankSnapshot snapshot = loadSnapshot(newSearcher, snapshotDir, field, generation);
+					if (snapshot != null && snapshot.getGeneration() == generation) {
+						putSnapshot(cache, field, snapshot);
+						LOG.info("Rank snapshot of {} for generation {} mapped in {}", new Object[]{ field, generation, AppHelper.getDiffTime(startTime) });
+						continue;
+					}
+					if (snapshot != null) {
+						previous = snapshot.getTable(SolrQuery.ORDER.asc);
+						LOG.info("Rank snapshot of {} for generation {} brought up to generation {}", new Object[]{ field, snapshot.getGeneration(), generation });
+					}
+				}
+				if (asc == null) {
+					asc = SolrHelper.createRankTable(newSearcher, ascKey, previous);
+					cache.put(ascKey, asc);
+				}
+				if (cache.get(descKey) == null) {
+					cache.put(descKey, SolrHelper.createRankTable(newSearcher, descKey, asc));
+				}
+				long written = getLatestGeneration(snapshotDir, field);
+				if (generation >= 0 && (currentSearcher == null || written < 0 || generation - written >= interval)) {
+					File file = writeSnapshot(snapshotDir, field, asc, generation);
+					LOG.info("Rank snapshot of {} for generation {} written in {}", new Object[]{ field, generation, AppHelper.getDiffTime(startTime) });
+					if (currentSearcher == null) {
+						//The first searcher serves the tables off heap as after a restart
+						putSnapshot(cache, field, RankSnapshot.load(file, newSearcher.getSchema().getField(field).getType()));
+					}
+				}
+			} catch (IOException e) {
+				LOG.error("Could not prepare rank snapshot of " + field, e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the key of the tables of a field in the rank cache, matching 
+	 * the key of a request with q=*:* & no filters.
+	 */
+	public static RankTableKey createKey(String field, SolrQuery.ORDER order) {
+		return new RankTableKey(field, order, new MatchAllDocsQuery(), null);
+	}
+
+	private static void putSnapshot(SolrCache<RankTableKey, RankTable> cache, String field, RankSnapshot snapshot) {
+		cache.put(createKey(field, SolrQuery.ORDER.asc), snapshot.getTable(SolrQuery.ORDER.asc));
+		cache.put(createKey(field, SolrQuery.ORDER.desc), snapshot.getTable(SolrQuery.ORDER.desc));
+	}
+
+	/**
+	 * Returns the table of the field on the current searcher in either order, 
+	 * the histograms of its segments are reused by the new searcher.
+	 */
+	private static RankTable getPrevious(SolrCache<RankTableKey, RankTable> currentCache, RankTableKey ascKey, RankTableKey descKey) {
+		if (currentCache == null) {
+			return null;
+		}
+		RankTable previous = currentCache.get(ascKey);
+		return previous != null ? previous : currentCache.get(descKey);
+	}
+
+	/**
+	 * Returns the rank cache of the searcher, typed for the rank tables this 
+	 * listener puts, null if none is configured.
+	 */
+	@SuppressWarnings("unchecked")
+	private static SolrCache<RankTableKey, RankTable> getRankCache(SolrIndexSearcher searcher) {
+		return searcher.getCache(SolrHelper.RANK_CACHE);
+	}
+
+	/**
+	 * Maps the latest snapshot of the field for the generation or an older 
+	 * one & deletes the snapshots of other generations. Returns null if there
+	 * is no readable snapshot up to the generation.
+	 */
+	private static RankSnapshot loadSnapshot(SolrIndexSearcher searcher, File snapshotDir, String field, long generation) {
+		if (generation < 0) {
+			return null;
+		}
+		long latest = getLatestGeneration(snapshotDir, field, generation);
+		if (latest < 0) {
+			return null;
+		}
+		File file = RankSnapshot.getFile(snapshotDir, field, latest);
+		try {
+			RankSnapshot snapshot = RankSnapshot.load(file, searcher.getSchema().getField(field).getType());
+			deleteOlder(snapshotDir, field, file);
+			return snapshot;
+		} catch (IOException e) {
+			LOG.warn("Discarding unreadable rank snapshot " + file, e);
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the counted table as the snapshot of the generation & deletes 
+	 * the snapshots of other generations. Returns the written file.
+	 */
+	private static File writeSnapshot(File snapshotDir, String field, RankTable table, long generation) throws IOException {
+		if (!snapshotDir.isDirectory() && !snapshotDir.mkdirs()) {
+			throw new IOException("Could not create " + snapshotDir);
+		}
+		File file = RankSnapshot.getFile(snapshotDir, field, generation);
+		RankSnapshot.write(file, table, generation);
+		deleteOlder(snapshotDir, field, file);
+		return file;
+	}
+
+	/**
+	 * Returns the latest generation with a snapshot of the field, -1 if none.
+	 */
+	private static long getLatestGeneration(File snapshotDir, String field) {
+		return getLatestGeneration(snapshotDir, field, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the latest generation up to the passed one with a snapshot of 
+	 * the field, -1 if none.
+	 */
+	private static long getLatestGeneration(File snapshotDir, String field, long maxGeneration) {
+		long latest = -1;
+		File[] files = snapshotDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				long generation = RankSnapshot.getGeneration(file, field);
+				if (generation <= maxGeneration) {
+					latest = Math.max(latest, generation);
+				}
+			}
+		}
+		return latest;
+	}
+
+	private static void deleteOlder(File snapshotDir, String field, File current) {
+		File[] files = snapshotDir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (RankSnapshot.isFile(file, field) && !file.equals(current) && !file.delete()) {
+				LOG.warn("Could not delete rank snapshot {}", file);
+			}
+		}
+	}
+
+	private static long getGeneration(SolrIndexSearcher searcher) {
+		try {
+			return searcher.getReader().getIndexCommit().getGeneration();
+		} catch (UnsupportedOperationException e) {
+			return -1;
+		} catch (IOException e) {
+			LOG.warn("Could not read the commit generation of the index", e);
+			return -1;
+		}
+	}
+
+	public String toString() {
+		return "RankSnapshotListener{fields=" + fields + ", dir=" + dir + ", interval=" + interval + "}";
+	}
+}
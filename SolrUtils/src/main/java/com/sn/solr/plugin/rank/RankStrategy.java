@@ -51,10 +51,27 @@ public enum RankStrategy {
 	 * Fractional ranking ["1 2.5 2.5 4"].
 	 */
 	FRACTIONAL ( "fractional", "Fractional Ranking." ),
+	/**
+	 * Percent rank ["0 0.33 0.33 1"], the share of the other documents ranked
+	 * strictly better, (standard rank - 1) / (documents - 1).
+	 */
+	PERCENT_RANK ( "percentRank", "Percent Rank." ),
+	/**
+	 * Cumulative distribution ["0.25 0.75 0.75 1"], the share of documents 
+	 * ranked better or tied, modified rank / documents.
+	 */
+	CUME_DIST ( "cumeDist", "Cumulative Distribution." ),
+	/**
+	 * N-tile bucket ["1 1 1 2"] for 2 buckets, documents are split in buckets
+	 * of equal size as by SQL NTILE, tied documents share the bucket of the
+	 * first of them.
+	 */
+	NTILE ( "ntile", "N-tile Bucket." ),
 	/** 
 	 * Match settings and bugs in Lucene's 2.0 release. 
 	 * @deprecated Use {@link #DENSE} instead.
 	 */
+	@Deprecated
 	LEGACY_DENSE ( "legacyDense", "Legacy Dense Ranking, only used for comparison purpose." );
 	
 	private String key;
@@ -80,6 +97,14 @@ public enum RankStrategy {
 	public String getDescription() {
 		return description;
 	}
+	
+	/**
+	 * Returns true if the rank is relative to the number of ranked documents,
+	 * {@link #PERCENT_RANK}, {@link #CUME_DIST} & {@link #NTILE}.
+	 */
+	public boolean isDistribution() {
+		return this.equals(PERCENT_RANK) || this.equals(CUME_DIST) || this.equals(NTILE);
+	}
 
 	/**
 	 * <p>
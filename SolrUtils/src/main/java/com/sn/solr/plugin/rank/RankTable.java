@@ -0,0 +1,443 @@
+/*
+ * Copyright 20011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sn.solr.plugin.rank;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.schema.FieldType;
+
+/**
+ * <code>RankTable</code> holds the distinct values of a rank field in rank
+ * order along with the number of documents for each value & the number of
+ * documents that are ranked strictly better. Once created the table is
+ * immutable & can be shared between requests, which is what allows it to be
+ * cached per {@link org.apache.solr.search.SolrIndexSearcher}.
+ *
+ * <p>
+ * Values are kept in indexed form so lookups are a binary search over the
+ * term order rather than a hash lookup on the readable value.
+ *
+ * <p>
+ * Tables created by the static factories hold their values on the heap, 
+ * {@link RankSnapshot} provides tables read from a memory mapped file.
+ *
+ * @author Sathiya N Sundararjan
+ * @since 0.3.1
+ * @see RankTableKey
+ * @see RankEngine#computeRank(RankTable, int, RankStrategy)
+ */
+public abstract class RankTable {
+
+	private final FieldType fieldType;
+
+	private final SolrQuery.ORDER order;
+
+	private List<SegmentHistogram> histograms;
+
+	protected RankTable(FieldType fieldType, SolrQuery.ORDER order) {
+		this.fieldType = fieldType;
+		this.order = order;
+	}
+
+	/**
+	 * Creates a table from facet style counts, that is a {@link NamedList} of
+	 * readable field values & counts in index order. Values with zero count
+	 * are dropped so they do not take up a dense rank.
+	 *
+	 * @param list {@link NamedList} of readable value & count in index order.
+	 * @param fieldType {@link FieldType} of the rank field.
+	 * @param order Sort order of the rank field.
+	 */
+	public static RankTable create(NamedList<? extends Number> list, FieldType fieldType, SolrQuery.ORDER order) {
+		int size = list == null ? 0 : list.size();
+		String[] terms = new String[size];
+		int[] counts = new int[size];
+		for (int i = 0; i < size; i++) {
+			terms[i] = fieldType.toInternal(list.getName(i));
+			counts[i] = list.getVal(i).intValue();
+		}
+		return create(terms, counts, fieldType, order);
+	}
+
+	/**
+	 * Creates a table from indexed terms & their counts in index order. Terms
+	 * with zero count are dropped so they do not take up a dense rank.
+	 *
+	 * @param terms Indexed terms of the rank field in index order.
+	 * @param counts Number of documents for each term.
+	 * @param fieldType {@link FieldType} of the rank field.
+	 * @param order Sort order of the rank field.
+	 */
+	public static RankTable create(String[] terms, int[] counts, FieldType fieldType, SolrQuery.ORDER order) {
+		if (RankValueSource.isNumeric(fieldType)) {
+			long[] keys = new long[terms.length];
+			boolean sorted = true;
+			for (int i = 0; i < terms.length; i++) {
+				keys[i] = RankValueSource.indexedToKey(fieldType, terms[i]);
+				sorted &= i == 0 || keys[i - 1] < keys[i];
+			}
+			if (sorted) {
+				return create(keys, terms, counts, fieldType, order);
+			}
+			//Index order of plain numeric fields is not numeric order, sort on the keys
+			final long[] _keys = keys;
+			Integer[] index = new Integer[terms.length];
+			for (int i = 0; i < index.length; i++) {
+				index[i] = i;
+			}
+			Arrays.sort(index, new Comparator<Integer>() {
+				public int compare(Integer i1, Integer i2) {
+					return _keys[i1] < _keys[i2] ? -1 : (_keys[i1] == _keys[i2] ? 0 : 1);
+				}
+			});
+			long[] sortedKeys = new long[terms.length];
+			String[] sortedTerms = new String[terms.length];
+			int[] sortedCounts = new int[terms.length];
+			for (int i = 0; i < index.length; i++) {
+				sortedKeys[i] = keys[index[i]];
+				sortedTerms[i] = terms[index[i]];
+				sortedCounts[i] = counts[index[i]];
+			}
+			return create(sortedKeys, sortedTerms, sortedCounts, fieldType, order);
+		}
+		return create(null, terms, counts, fieldType, order);
+	}
+
+	/**
+	 * Creates a table of a numeric field from keys as returned by 
+	 * {@link RankValueSource#getKey(int)} in ascending order, along with the
+	 * indexed term & count of each key. Keys with zero count are dropped.
+	 *
+	 * @param keys Keys of the rank field values in ascending order, null for 
+	 * fields that are not numeric.
+	 * @param terms Indexed terms of the rank field values.
+	 * @param counts Number of documents for each value.
+	 * @param fieldType {@link FieldType} of the rank field.
+	 * @param order Sort order of the rank field.
+	 */
+	public static RankTable create(long[] keys, String[] terms, int[] counts, FieldType fieldType, SolrQuery.ORDER order) {
+		int size = 0;
+		for (int count : counts) {
+			if (count > 0) {
+				size++;
+			}
+		}
+		String[] rankTerms = new String[size];
+		long[] rankKeys = keys == null ? null : new long[size];
+		int[] rankCounts = new int[size];
+		boolean desc = order.equals(SolrQuery.ORDER.desc);
+		int i = 0;
+		for (int j = 0; j < terms.length; j++) {
+			if (counts[j] > 0) {
+				int pos = desc ? size - 1 - i : i;
+				rankTerms[pos] = terms[j];
+				if (keys != null) {
+					rankKeys[pos] = keys[j];
+				}
+				rankCounts[pos] = counts[j];
+				i++;
+			}
+		}
+		return new ArrayTable(fieldType, order, rankTerms, rankKeys, rankCounts);
+	}
+
+	/**
+	 * Merges histograms returned by {@link #toHistogram(int)} of several shards
+	 * into a single table, counts of the same value are summed.
+	 *
+	 * @param histograms {@link NamedList} of readable value & count per shard.
+	 * @param fieldType {@link FieldType} of the rank field.
+	 * @param order Sort order of the rank field.
+	 */
+	public static RankTable merge(List<NamedList<? extends Number>> histograms, FieldType fieldType, SolrQuery.ORDER order) {
+		TreeMap<String, int[]> merged = new TreeMap<String, int[]>();
+		for (NamedList<? extends Number> histogram : histograms) {
+			for (Map.Entry<String, ? extends Number> e : histogram) {
+				String term = fieldType.toInternal(e.getKey());
+				int[] count = merged.get(term);
+				if (count == null) {
+					count = new int[1];
+					merged.put(term, count);
+				}
+				count[0] += e.getValue().intValue();
+			}
+		}
+		return create(merged, fieldType, order);
+	}
+
+	/**
+	 * Creates a table from a sorted map of indexed term & count, as built when
+	 * merging counts of several sources.
+	 */
+	static RankTable create(SortedMap<String, int[]> merged, FieldType fieldType, SolrQuery.ORDER order) {
+		String[] terms = new String[merged.size()];
+		int[] counts = new int[merged.size()];
+		int i = 0;
+		for (Map.Entry<String, int[]> e : merged.entrySet()) {
+			terms[i] = e.getKey();
+			counts[i] = e.getValue()[0];
+			i++;
+		}
+		return create(terms, counts, fieldType, order);
+	}
+
+	/**
+	 * Returns the readable values & counts of the table in rank order, this is
+	 * what a shard returns to be merged with {@link #merge(List, FieldType, SolrQuery.ORDER)}.
+	 * Only values up to & including the one that covers the first
+	 * <code>maxDocs</code> documents are returned, a value beyond that can not
+	 * be on the requested page of any shard & so is not needed for ranking it.
+	 *
+	 * @param maxDocs Number of documents to cover, negative for all values.
+	 */
+	public NamedList<Integer> toHistogram(int maxDocs) {
+		NamedList<Integer> histogram = new NamedList<Integer>();
+		for (int i = 0; i < size() && (maxDocs < 0 || getBetter(i) < maxDocs); i++) {
+			histogram.add(getValue(i), getCount(i));
+		}
+		return histogram;
+	}
+
+	/**
+	 * Returns the position of the passed readable value in rank order, or -1
+	 * if the value is not present in the table.
+	 *
+	 * @param value Readable value of the rank field as returned in a document.
+	 */
+	public int indexOf(String value) {
+		if (value == null) {
+			return -1;
+		}
+		if (isNumeric()) {
+			try {
+				return indexOf(RankValueSource.toKey(fieldType, value));
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+		String term = fieldType.toInternal(value);
+		boolean desc = order.equals(SolrQuery.ORDER.desc);
+		int low = 0;
+		int high = size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = getTerm(mid).compareTo(term);
+			if (cmp == 0) {
+				return mid;
+			}
+			if ((cmp < 0) != desc) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the position of the passed key in rank order, or -1 if the key 
+	 * is not present in the table or the field is not numeric.
+	 *
+	 * @param key Key of the value as returned by {@link RankValueSource}.
+	 */
+	public int indexOf(long key) {
+		if (!isNumeric()) {
+			return -1;
+		}
+		boolean desc = order.equals(SolrQuery.ORDER.desc);
+		int low = 0;
+		int high = size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midKey = getKey(mid);
+			if (midKey == key) {
+				return mid;
+			}
+			if ((midKey < key) != desc) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the position of the value held by the document at the passed
+	 * row of the ranked documents, or -1 if the row is beyond the documents
+	 * of the table.
+	 *
+	 * @param row Zero based row of the documents in rank order.
+	 */
+	public int indexAt(int row) {
+		if (row < 0 || row >= getNumDocs()) {
+			return -1;
+		}
+		int low = 0;
+		int high = size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (getBetter(mid) <= row) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns true if values are compared as numbers, see 
+	 * {@link RankValueSource#isNumeric(FieldType)}.
+	 */
+	public abstract boolean isNumeric();
+
+	/**
+	 * Number of distinct values in the table.
+	 */
+	public abstract int size();
+
+	/**
+	 * Total number of documents counted in the table.
+	 */
+	public abstract int getNumDocs();
+
+	public FieldType getFieldType() {
+		return fieldType;
+	}
+
+	/**
+	 * Per segment histograms the table was merged from, null if the table was
+	 * not counted per segment. They live as long as the table in the rank 
+	 * cache & are reused when the table is regenerated for a new searcher.
+	 * 
+	 * @see SegmentHistogram
+	 */
+	public List<SegmentHistogram> getHistograms() {
+		return histograms;
+	}
+
+	/**
+	 * Sets the histograms the table was merged from, only before the table is
+	 * shared.
+	 */
+	RankTable setHistograms(List<SegmentHistogram> histograms) {
+		this.histograms = Collections.unmodifiableList(histograms);
+		return this;
+	}
+
+	public SolrQuery.ORDER getOrder() {
+		return order;
+	}
+
+	/**
+	 * Readable value at the given position.
+	 */
+	public String getValue(int pos) {
+		return fieldType.indexedToReadable(getTerm(pos));
+	}
+
+	/**
+	 * Key of the value at the given position, only valid for numeric tables.
+	 */
+	public abstract long getKey(int pos);
+
+	/**
+	 * Indexed term of the value at the given position.
+	 */
+	public abstract String getTerm(int pos);
+
+	/**
+	 * Number of documents having the value at the given position.
+	 */
+	public abstract int getCount(int pos);
+
+	/**
+	 * Number of documents ranked strictly better than the value at the given
+	 * position.
+	 */
+	public abstract int getBetter(int pos);
+
+	public String toString() {
+		return "RankTable{size=" + size() + ", numDocs=" + getNumDocs() + ", order=" + order + "}";
+	}
+
+	/**
+	 * Table holding its values in arrays on the heap.
+	 */
+	private static class ArrayTable extends RankTable {
+
+		private final String[] terms;
+
+		private final long[] keys;
+
+		private final int[] counts;
+
+		private final int[] better;
+
+		private final int numDocs;
+
+		ArrayTable(FieldType fieldType, SolrQuery.ORDER order, String[] terms, long[] keys, int[] counts) {
+			super(fieldType, order);
+			this.terms = terms;
+			this.keys = keys;
+			this.counts = counts;
+			this.better = new int[counts.length];
+			int total = 0;
+			for (int i = 0; i < counts.length; i++) {
+				better[i] = total;
+				total += counts[i];
+			}
+			this.numDocs = total;
+		}
+
+		public boolean isNumeric() {
+			return keys != null;
+		}
+
+		public int size() {
+			return terms.length;
+		}
+
+		public int getNumDocs() {
+			return numDocs;
+		}
+
+		public long getKey(int pos) {
+			return keys[pos];
+		}
+
+		public String getTerm(int pos) {
+			return terms[pos];
+		}
+
+		public int getCount(int pos) {
+			return counts[pos];
+		}
+
+		public int getBetter(int pos) {
+			return better[pos];
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 20011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sn.solr.plugin.rank;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.search.Query;
+import org.apache.solr.client.solrj.SolrQuery;
+
+/**
+ * <code>RankTableKey</code> identifies a {@link RankTable} in the per searcher
+ * rank cache. A table depends on the rank field, the sort order of the rank 
+ * field & the set of documents that were counted, which is defined by the 
+ * main query & filters of the request.
+ * 
+ * @author Sathiya N Sundararjan
+ * @since 0.3.1
+ * @see RankTableRegenerator
+ */
+public class RankTableKey {
+
+	private final String rankField;
+
+	private final SolrQuery.ORDER order;
+
+	private final Query query;
+
+	private final List<Query> filters;
+
+	private final int hash;
+
+	public RankTableKey(String rankField, SolrQuery.ORDER order, Query query, List<Query> filters) {
+		this.rankField = rankField;
+		this.order = order;
+		this.query = query;
+		this.filters = filters == null ? Collections.<Query>emptyList() : filters;
+		int h = rankField.hashCode();
+		h = 31 * h + order.hashCode();
+		h = 31 * h + (query == null ? 0 : query.hashCode());
+		h = 31 * h + this.filters.hashCode();
+		this.hash = h;
+	}
+
+	public String getRankField() {
+		return rankField;
+	}
+
+	public SolrQuery.ORDER getOrder() {
+		return order;
+	}
+
+	public Query getQuery() {
+		return query;
+	}
+
+	public List<Query> getFilters() {
+		return filters;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof RankTableKey)) {
+			return false;
+		}
+		RankTableKey k = (RankTableKey) o;
+		return hash == k.hash && rankField.equals(k.rankField) && order.equals(k.order) 
+				&& (query == null ? k.query == null : query.equals(k.query)) && filters.equals(k.filters);
+	}
+
+	public String toString() {
+		return "RankTableKey{field=" + rankField + ", order=" + order + ", query=" + query + ", filters=" + filters + "}";
+	}
+}
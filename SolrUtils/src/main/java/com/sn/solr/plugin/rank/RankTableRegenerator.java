@@ -0,0 +1,63 @@
+/*
+ * Copyright 20011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sn.solr.plugin.rank;
+
+import java.io.IOException;
+
+import org.apache.solr.search.CacheRegenerator;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+
+import com.sn.solr.plugin.common.SolrHelper;
+
+/**
+ * <code>RankTableRegenerator</code> autowarms the rank cache when a new 
+ * searcher is opened. Each {@link RankTableKey} from the old cache is 
+ * recounted against the new searcher so the first rank request after a commit 
+ * does not pay for building the table. Segments unchanged since the old table
+ * was counted reuse its {@link SegmentHistogram}s, so the size & autowarmCount
+ * of the cache also bound the histograms kept. {@link RankSketchKey} entries 
+ * are rebuilt the same way, tables mapped from a {@link RankSnapshot} are left
+ * to {@link RankSnapshotListener}.
+ * 
+ * <p>
+ * Configure it as the regenerator of the rank cache in solrconfig.xml:
+ * <pre>
+ * &lt;cache name="rankCache" class="solr.LRUCache" size="64" initialSize="16" 
+ *     autowarmCount="16" regenerator="com.sn.solr.plugin.rank.RankTableRegenerator"/&gt;
+ * </pre>
+ * 
+ * @author Sathiya N Sundararjan
+ * @since 0.3.1
+ */
+public class RankTableRegenerator implements CacheRegenerator {
+
+	//Raw caches are dictated by CacheRegenerator
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	public boolean regenerateItem(SolrIndexSearcher newSearcher, SolrCache newCache, SolrCache oldCache, Object oldKey, Object oldVal) throws IOException {
+		if (RankSnapshot.isMapped(oldVal)) {
+			//Snapshots are put into the new cache by RankSnapshotListener
+			return true;
+		}
+		if (oldKey instanceof RankSketchKey) {
+			newCache.put(oldKey, SolrHelper.createRankSketch(newSearcher, (RankSketchKey) oldKey));
+			return true;
+		}
+		RankTableKey key = (RankTableKey) oldKey;
+		newCache.put(key, SolrHelper.createRankTable(newSearcher, key, (RankTable) oldVal));
+		return true;
+	}
+}
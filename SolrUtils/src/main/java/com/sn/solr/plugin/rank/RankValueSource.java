@@ -0,0 +1,317 @@
+/*
+ * Copyright 20011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sn.solr.plugin.rank;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.util.ReaderUtil;
+import org.apache.solr.schema.DoubleField;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.FloatField;
+import org.apache.solr.schema.IntField;
+import org.apache.solr.schema.LongField;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.SortableDoubleField;
+import org.apache.solr.schema.SortableFloatField;
+import org.apache.solr.schema.SortableIntField;
+import org.apache.solr.schema.SortableLongField;
+import org.apache.solr.schema.TrieDateField;
+import org.apache.solr.schema.TrieField;
+import org.apache.solr.search.SolrIndexReader;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * <code>RankValueSource</code> provides per document access to the value of 
+ * the rank field through the Lucene {@link FieldCache}, so reading the rank 
+ * value of a document is an array read instead of a stored document load.
+ * 
+ * <p>
+ * Values are exposed as a <code>long</code> key that sorts the same way Solr 
+ * sorts the field. Trie & plain numeric fields use the numeric value, float 
+ * & double values are converted to their sortable bits & every other field 
+ * type uses the term ordinal from {@link FieldCache.StringIndex}. Documents 
+ * without a value get the key of 0 as they do in the {@link FieldCache}.
+ * 
+ * <p>
+ * Values are loaded per segment, the same {@link FieldCache} entries Solr 
+ * sorts with, so no top level entry of the whole index is built & only new
+ * segments are loaded after a commit. Term ordinals are only comparable 
+ * within a segment, use {@link #isSameValue(int, int)} to compare documents.
+ * 
+ * @author Sathiya N Sundararjan
+ * @since 0.3.1
+ * @see #create(IndexReader, SchemaField)
+ * @see #create(SolrIndexSearcher, SchemaField)
+ */
+public abstract class RankValueSource {
+	
+	/**
+	 * Returns the sortable key of the rank field value for the document.
+	 * 
+	 * @param doc Lucene document id, relative to the reader the source was 
+	 * created for.
+	 */
+	public abstract long getKey(int doc);
+	
+	/**
+	 * Returns true if both documents have the same rank value.
+	 * 
+	 * @param doc Lucene document id, relative to the reader the source was 
+	 * created for.
+	 * @param other Lucene document id of the other document.
+	 */
+	public boolean isSameValue(int doc, int other) {
+		return getKey(doc) == getKey(other);
+	}
+	
+	/**
+	 * Creates a value source for the passed rank field, using the 
+	 * {@link FieldCache} entry Solr would use to sort on the field.
+	 * 
+	 * @param reader Segment {@link IndexReader} to load the values from.
+	 * @param rankField {@link SchemaField} of the rank field.
+	 * @throws IOException
+	 */
+	public static RankValueSource create(IndexReader reader, SchemaField rankField) throws IOException {
+		FieldType ft = rankField.getType();
+		String field = rankField.getName();
+		if (ft instanceof TrieDateField) {
+			return new LongValues(FieldCache.DEFAULT.getLongs(reader, field, FieldCache.NUMERIC_UTILS_LONG_PARSER));
+		}
+		if (ft instanceof TrieField) {
+			switch (((TrieField) ft).getType()) {
+				case INTEGER:
+					return new IntValues(FieldCache.DEFAULT.getInts(reader, field, FieldCache.NUMERIC_UTILS_INT_PARSER));
+				case FLOAT:
+					return new FloatValues(FieldCache.DEFAULT.getFloats(reader, field, FieldCache.NUMERIC_UTILS_FLOAT_PARSER));
+				case DOUBLE:
+					return new DoubleValues(FieldCache.DEFAULT.getDoubles(reader, field, FieldCache.NUMERIC_UTILS_DOUBLE_PARSER));
+				default:
+					return new LongValues(FieldCache.DEFAULT.getLongs(reader, field, FieldCache.NUMERIC_UTILS_LONG_PARSER));
+			}
+		}
+		if (ft instanceof IntField) {
+			return new IntValues(FieldCache.DEFAULT.getInts(reader, field));
+		}
+		if (ft instanceof LongField) {
+			return new LongValues(FieldCache.DEFAULT.getLongs(reader, field));
+		}
+		if (ft instanceof FloatField) {
+			return new FloatValues(FieldCache.DEFAULT.getFloats(reader, field));
+		}
+		if (ft instanceof DoubleField) {
+			return new DoubleValues(FieldCache.DEFAULT.getDoubles(reader, field));
+		}
+		return new OrdValues(FieldCache.DEFAULT.getStringIndex(reader, field));
+	}
+	
+	/**
+	 * Creates a value source for the passed rank field over the documents of
+	 * the searcher, reading the values of each leaf reader of the index with 
+	 * its doc base offset.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to load the values from.
+	 * @param rankField {@link SchemaField} of the rank field.
+	 * @throws IOException
+	 */
+	public static RankValueSource create(SolrIndexSearcher searcher, SchemaField rankField) throws IOException {
+		SolrIndexReader[] leaves = searcher.getReader().getLeafReaders();
+		RankValueSource[] sources = new RankValueSource[leaves.length];
+		for (int i = 0; i < leaves.length; i++) {
+			sources[i] = create(leaves[i], rankField);
+		}
+		return new LeafValues(sources, searcher.getReader().getLeafOffsets());
+	}
+	
+	/**
+	 * Returns true if the values of the field type are numbers, for those the
+	 * key of a value can be computed with {@link #toKey(FieldType, String)} & 
+	 * ranking compares keys instead of strings.
+	 * 
+	 * @param ft {@link FieldType} of the rank field.
+	 */
+	public static boolean isNumeric(FieldType ft) {
+		return ft instanceof TrieField || ft instanceof TrieDateField || getNumericType(ft) != null;
+	}
+	
+	/**
+	 * Returns the key of a readable value of a numeric field. Float & double 
+	 * values are converted to their sortable bits, so keys order the same way
+	 * as the numbers do, negative values included. For trie & plain numeric 
+	 * fields this is the key {@link #getKey(int)} returns for the value.
+	 * 
+	 * @param ft {@link FieldType} of the rank field, see {@link #isNumeric(FieldType)}.
+	 * @param value Readable value of the field.
+	 * @throws NumberFormatException if the value is not a valid number.
+	 */
+	public static long toKey(FieldType ft, String value) {
+		if (ft instanceof TrieField || ft instanceof TrieDateField) {
+			return indexedToKey(ft, ft.toInternal(value));
+		}
+		switch (getNumericType(ft)) {
+			case FLOAT:
+				return NumericUtils.floatToSortableInt(Float.parseFloat(value));
+			case DOUBLE:
+				return NumericUtils.doubleToSortableLong(Double.parseDouble(value));
+			default:
+				return Long.parseLong(value);
+		}
+	}
+	
+	/**
+	 * Returns the key of an indexed term of a numeric field.
+	 * 
+	 * @param ft {@link FieldType} of the rank field, see {@link #isNumeric(FieldType)}.
+	 * @param term Indexed term of the field.
+	 */
+	public static long indexedToKey(FieldType ft, String term) {
+		if (ft instanceof TrieField) {
+			TrieField.TrieTypes type = ((TrieField) ft).getType();
+			if (type.equals(TrieField.TrieTypes.INTEGER) || type.equals(TrieField.TrieTypes.FLOAT)) {
+				return NumericUtils.prefixCodedToInt(term);
+			}
+			return NumericUtils.prefixCodedToLong(term);
+		}
+		if (ft instanceof TrieDateField) {
+			return NumericUtils.prefixCodedToLong(term);
+		}
+		return toKey(ft, ft.indexedToReadable(term));
+	}
+	
+	private static TrieField.TrieTypes getNumericType(FieldType ft) {
+		if (ft instanceof IntField || ft instanceof SortableIntField) {
+			return TrieField.TrieTypes.INTEGER;
+		}
+		if (ft instanceof LongField || ft instanceof SortableLongField) {
+			return TrieField.TrieTypes.LONG;
+		}
+		if (ft instanceof FloatField || ft instanceof SortableFloatField) {
+			return TrieField.TrieTypes.FLOAT;
+		}
+		if (ft instanceof DoubleField || ft instanceof SortableDoubleField) {
+			return TrieField.TrieTypes.DOUBLE;
+		}
+		return null;
+	}
+	
+	private static class IntValues extends RankValueSource {
+		
+		private final int[] values;
+		
+		IntValues(int[] values) {
+			this.values = values;
+		}
+
+		public long getKey(int doc) {
+			return values[doc];
+		}
+	}
+	
+	private static class LongValues extends RankValueSource {
+		
+		private final long[] values;
+		
+		LongValues(long[] values) {
+			this.values = values;
+		}
+
+		public long getKey(int doc) {
+			return values[doc];
+		}
+	}
+	
+	private static class FloatValues extends RankValueSource {
+		
+		private final float[] values;
+		
+		FloatValues(float[] values) {
+			this.values = values;
+		}
+
+		public long getKey(int doc) {
+			return NumericUtils.floatToSortableInt(values[doc]);
+		}
+	}
+	
+	private static class DoubleValues extends RankValueSource {
+		
+		private final double[] values;
+		
+		DoubleValues(double[] values) {
+			this.values = values;
+		}
+
+		public long getKey(int doc) {
+			return NumericUtils.doubleToSortableLong(values[doc]);
+		}
+	}
+	
+	private static class OrdValues extends RankValueSource {
+		
+		private final FieldCache.StringIndex index;
+		
+		OrdValues(FieldCache.StringIndex index) {
+			this.index = index;
+		}
+
+		public long getKey(int doc) {
+			return index.order[doc];
+		}
+		
+		String getTerm(int doc) {
+			return index.lookup[index.order[doc]];
+		}
+	}
+	
+	/**
+	 * Values of a top level reader read from the source of the leaf reader 
+	 * each document belongs to.
+	 */
+	private static class LeafValues extends RankValueSource {
+		
+		private final RankValueSource[] sources;
+		
+		private final int[] offsets;
+		
+		LeafValues(RankValueSource[] sources, int[] offsets) {
+			this.sources = sources;
+			this.offsets = offsets;
+		}
+
+		public long getKey(int doc) {
+			int i = ReaderUtil.subIndex(doc, offsets);
+			return sources[i].getKey(doc - offsets[i]);
+		}
+		
+		public boolean isSameValue(int doc, int other) {
+			int i = ReaderUtil.subIndex(doc, offsets);
+			int j = ReaderUtil.subIndex(other, offsets);
+			if (i == j) {
+				return sources[i].isSameValue(doc - offsets[i], other - offsets[j]);
+			}
+			if (sources[i] instanceof OrdValues) {
+				//Ordinals of different segments, compare the terms
+				String term = ((OrdValues) sources[i]).getTerm(doc - offsets[i]);
+				String otherTerm = ((OrdValues) sources[j]).getTerm(other - offsets[j]);
+				return term == null ? otherTerm == null : term.equals(otherTerm);
+			}
+			return getKey(doc) == getKey(other);
+		}
+	}
+}
@@ -0,0 +1,677 @@
+/*
+ * Copyright 20011-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sn.solr.plugin.rank;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.TrieDateField;
+import org.apache.solr.schema.TrieField;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SolrIndexReader;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>SegmentHistogram</code> holds the count of documents per rank field 
+ * value for a single index segment. The histograms of a {@link RankTable} are
+ * kept with the table in the per searcher rank cache, so they are bounded by 
+ * the configured size of the cache & released with it. When the table is 
+ * regenerated for a new searcher by {@link RankTableRegenerator} only new or
+ * merged segments are counted. A segment that only got new deletions is 
+ * adjusted by removing the newly deleted documents from its counts when every
+ * document of the segment is ranked, otherwise it is counted again. A 
+ * histogram holds no reference to the reader it was counted on, only the 
+ * name & size of the segment, its number of deleted documents & for tables
+ * ranking every document a copy of its deletions. Segments are identified 
+ * by name, which stays valid across restarts, so histograms written to a 
+ * {@link RankSnapshot} are reused the same way.
+ * 
+ * <p>
+ * Segment histograms are merged into a {@link RankTable} on demand. This only
+ * supports single valued rank fields & relies on the documents matched by a 
+ * query in a segment not changing as long as the segment does not change.
+ * 
+ * <p>
+ * Counting runs on the calling thread unless a pool created with 
+ * {@link #createExecutor(int)} is passed, then segments & ranges of large 
+ * segments are counted in parallel & their partial counts merged. The pool is
+ * owned by the caller, which shuts it down.
+ * 
+ * @author Sathiya N Sundararjan
+ * @since 0.3.1
+ * @see #getRankTable(SolrIndexSearcher, RankTableKey, DocSet, RankTable, ThreadPoolExecutor)
+ */
+public class SegmentHistogram {
+	
+	private static final Logger LOG = LoggerFactory.getLogger(SegmentHistogram.class);
+	
+	private static final int MIN_DOCS_PER_RANGE = 1 << 16;
+	
+	private final Object segmentKey;
+	
+	private final int numDeleted;
+	
+	private final FixedBitSet deleted;
+	
+	private final long[] keys;
+	
+	private final String[] terms;
+	
+	private final int[] counts;
+	
+	private SegmentHistogram(Object segmentKey, int numDeleted, FixedBitSet deleted, long[] keys, String[] terms, int[] counts) {
+		this.segmentKey = segmentKey;
+		this.numDeleted = numDeleted;
+		this.deleted = deleted;
+		this.keys = keys;
+		this.terms = terms;
+		this.counts = counts;
+	}
+	
+	/**
+	 * Returns true if the rank field can be counted per segment, that is when
+	 * it holds a single value per document.
+	 * 
+	 * @param rankField {@link SchemaField} of the rank field.
+	 */
+	public static boolean supports(SchemaField rankField) {
+		return !(rankField.multiValued() || rankField.getType().multiValuedFieldCache());
+	}
+	
+	/**
+	 * Creates a pool of the passed number of daemon threads to count segments
+	 * with, segments & large ranges of documents within a segment are then 
+	 * counted in parallel. Returns null for 1 or less, counting then runs on 
+	 * the calling thread.
+	 * 
+	 * @param countThreads Number of counting threads.
+	 */
+	public static ThreadPoolExecutor createExecutor(int countThreads) {
+		if (countThreads <= 1) {
+			return null;
+		}
+		LOG.info("Counting segment histograms with {} threads", countThreads);
+		return (ThreadPoolExecutor) Executors.newFixedThreadPool(countThreads, new CountThreadFactory());
+	}
+	
+	/**
+	 * Builds the {@link RankTable} for the passed key by merging the 
+	 * histograms of all segments of the searcher. Histograms of the previous 
+	 * table are reused for segments that are still part of the searcher, the 
+	 * others are counted on the configured count threads. The returned table
+	 * holds its histograms, see {@link RankTable#getHistograms()}.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param key {@link RankTableKey} identifying the table.
+	 * @param docs {@link DocSet} matching the query & filters of the key.
+	 * @param previous {@link RankTable} of the same query & filters counted 
+	 * on this or the previous searcher, in either order, null if none.
+	 * @param executor Pool to count on, null to count on the calling thread.
+	 * @throws IOException
+	 */
+	public static RankTable getRankTable(SolrIndexSearcher searcher, RankTableKey key, DocSet docs, RankTable previous, 
+			ThreadPoolExecutor executor) throws IOException {
+		SchemaField rankField = searcher.getSchema().getField(key.getRankField());
+		Map<Object, SegmentHistogram> previousHistograms = new HashMap<Object, SegmentHistogram>();
+		if (previous != null && previous.getHistograms() != null) {
+			for (SegmentHistogram histogram : previous.getHistograms()) {
+				previousHistograms.put(histogram.segmentKey, histogram);
+			}
+		}
+		//Newly deleted documents were counted only if every document is ranked
+		boolean matchAll = key.getQuery() instanceof MatchAllDocsQuery && key.getFilters().isEmpty();
+		SolrIndexReader[] leaves = searcher.getReader().getLeafReaders();
+		Filter filter = docs.getTopFilter();
+		int tasks = executor == null ? 1 : executor.getMaximumPoolSize();
+		List<SegmentHistogram> histograms = new ArrayList<SegmentHistogram>(leaves.length);
+		List<SegmentCount> counts = new ArrayList<SegmentCount>();
+		for (int i = 0; i < leaves.length; i++) {
+			SegmentHistogram histogram = previousHistograms.get(getSegmentKey(leaves[i]));
+			int numDeleted = leaves[i].numDeletedDocs();
+			if (histogram != null && histogram.numDeleted == numDeleted) {
+				histograms.add(histogram);
+				continue;
+			}
+			SegmentValues values = SegmentValues.create(leaves[i], rankField);
+			SegmentHistogram adjusted = null;
+			if (histogram != null && matchAll && histogram.canAdjust() && histogram.numDeleted < numDeleted) {
+				adjusted = histogram.adjust(leaves[i], values);
+			}
+			if (adjusted != null) {
+				histograms.add(adjusted);
+				LOG.debug("Adjusted segment histogram for {} deletions", numDeleted - histogram.numDeleted);
+			} else {
+				counts.add(new SegmentCount(leaves[i], values, filter.getDocIdSet(leaves[i]), tasks, matchAll));
+			}
+		}
+		if (executor != null) {
+			for (SegmentCount count : counts) {
+				count.submit(executor);
+			}
+		}
+		for (SegmentCount count : counts) {
+			histograms.add(count.get());
+			LOG.debug("Counted segment histogram of {} docs", count.segment.maxDoc());
+		}
+		return merge(histograms, rankField.getType(), key.getOrder()).setHistograms(histograms);
+	}
+	
+	/**
+	 * Builds a {@link RankTable} per value of the partition field in a single
+	 * pass over the documents, each table ranks only the documents with that 
+	 * partition value. Documents without a partition or rank value are not 
+	 * counted. Both fields must be single valued, partitioned counts are not
+	 * kept between requests.
+	 * 
+	 * @param searcher {@link SolrIndexSearcher} to count against.
+	 * @param partitionField {@link SchemaField} of the partition field.
+	 * @param rankField {@link SchemaField} of the rank field.
+	 * @param order Sort order of the rank field.
+	 * @param docs {@link DocSet} of documents to be ranked.
+	 * @return Tables by indexed term of the partition value.
+	 * @throws IOException
+	 */
+	public static Map<String, RankTable> getPartitionedRankTables(SolrIndexSearcher searcher, SchemaField partitionField, 
+			SchemaField rankField, SolrQuery.ORDER order, DocSet docs) throws IOException {
+		SolrIndexReader[] leaves = searcher.getReader().getLeafReaders();
+		Filter filter = docs.getTopFilter();
+		Map<String, List<SegmentHistogram>> partitions = new HashMap<String, List<SegmentHistogram>>();
+		for (int i = 0; i < leaves.length; i++) {
+			SegmentValues partitionValues = SegmentValues.create(leaves[i], partitionField);
+			SegmentValues values = SegmentValues.create(leaves[i], rankField);
+			int maxDoc = leaves[i].maxDoc();
+			long[] docPartitions = new long[Math.min(1024, maxDoc)];
+			long[] docKeys = new long[docPartitions.length];
+			int size = 0;
+			DocIdSet segmentDocs = filter.getDocIdSet(leaves[i]);
+			DocIdSetIterator it = segmentDocs == null ? null : segmentDocs.iterator();
+			for (int doc = it == null ? DocIdSetIterator.NO_MORE_DOCS : it.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = it.nextDoc()) {
+				if (values.exists(doc) && partitionValues.exists(doc)) {
+					if (size == docKeys.length) {
+						docPartitions = Arrays.copyOf(docPartitions, Math.min(size * 2, maxDoc));
+						docKeys = Arrays.copyOf(docKeys, docPartitions.length);
+					}
+					docPartitions[size] = partitionValues.getKey(doc);
+					docKeys[size++] = values.getKey(doc);
+				}
+			}
+			//Group the rank keys by partition, then sort & count each group
+			long[] sortedPartitions = Arrays.copyOf(docPartitions, size);
+			Arrays.sort(sortedPartitions);
+			Partial segmentPartitions = Partial.create(sortedPartitions, 0, size);
+			int[] starts = new int[segmentPartitions.keys.length + 1];
+			for (int p = 0; p < segmentPartitions.keys.length; p++) {
+				starts[p + 1] = starts[p] + segmentPartitions.counts[p];
+			}
+			int[] next = Arrays.copyOf(starts, segmentPartitions.keys.length);
+			long[] groupedKeys = new long[size];
+			for (int j = 0; j < size; j++) {
+				groupedKeys[next[Arrays.binarySearch(segmentPartitions.keys, docPartitions[j])]++] = docKeys[j];
+			}
+			for (int p = 0; p < segmentPartitions.keys.length; p++) {
+				Arrays.sort(groupedKeys, starts[p], starts[p + 1]);
+				Partial partial = Partial.create(groupedKeys, starts[p], starts[p + 1]);
+				String[] terms = new String[partial.keys.length];
+				for (int j = 0; j < terms.length; j++) {
+					terms[j] = values.getTerm(partial.keys[j]);
+				}
+				String partition = partitionValues.getTerm(segmentPartitions.keys[p]);
+				List<SegmentHistogram> histograms = partitions.get(partition);
+				if (histograms == null) {
+					histograms = new ArrayList<SegmentHistogram>();
+					partitions.put(partition, histograms);
+				}
+				histograms.add(new SegmentHistogram(null, 0, null, partial.keys, terms, partial.counts));
+			}
+		}
+		Map<String, RankTable> tables = new HashMap<String, RankTable>();
+		for (Map.Entry<String, List<SegmentHistogram>> e : partitions.entrySet()) {
+			tables.put(e.getKey(), merge(e.getValue(), rankField.getType(), order));
+		}
+		LOG.debug("Counted {} partitions of {}", tables.size(), partitionField.getName());
+		return tables;
+	}
+	
+	/**
+	 * Returns the key identifying a segment across readers & restarts, its 
+	 * name & number of documents, or the core cache key for readers that are
+	 * not segment readers.
+	 */
+	private static Object getSegmentKey(SolrIndexReader leaf) {
+		IndexReader reader = leaf.getWrappedReader();
+		if (reader instanceof SegmentReader) {
+			return ((SegmentReader) reader).getSegmentName() + ":" + reader.maxDoc();
+		}
+		return leaf.getCoreCacheKey();
+	}
+	
+	/**
+	 * Returns true if the deletions the histogram was counted with are known,
+	 * newly deleted documents can then be removed from its counts.
+	 */
+	private boolean canAdjust() {
+		return numDeleted == 0 || deleted != null;
+	}
+	
+	/**
+	 * Returns a copy of the deleted documents of a segment, null if it has no
+	 * deletions.
+	 */
+	private static FixedBitSet getDeletions(IndexReader segment) {
+		if (!segment.hasDeletions()) {
+			return null;
+		}
+		int maxDoc = segment.maxDoc();
+		FixedBitSet deletions = new FixedBitSet(maxDoc);
+		for (int doc = 0; doc < maxDoc; doc++) {
+			if (segment.isDeleted(doc)) {
+				deletions.set(doc);
+			}
+		}
+		return deletions;
+	}
+	
+	/**
+	 * Returns a copy of this histogram without the documents deleted in the 
+	 * passed reader of the same segment since this histogram was counted. 
+	 * Only valid if every document of the segment with a value was counted. 
+	 * Values left without documents are dropped. Returns null if the value of
+	 * a deleted document is unknown, the field cache of a segment loaded after
+	 * the deletion (e.g. after a restart) holds no values for deleted documents.
+	 */
+	private SegmentHistogram adjust(SolrIndexReader newSegment, SegmentValues values) {
+		int[] adjustedCounts = counts.clone();
+		int newDeletions = newSegment.numDeletedDocs() - numDeleted;
+		int maxDoc = newSegment.maxDoc();
+		int removed = 0;
+		for (int doc = 0; doc < maxDoc && newDeletions > 0; doc++) {
+			if (newSegment.isDeleted(doc) && (deleted == null || !deleted.get(doc))) {
+				newDeletions--;
+				if (!values.exists(doc)) {
+					return null;
+				}
+				if (--adjustedCounts[Arrays.binarySearch(keys, values.getKey(doc))] == 0) {
+					removed++;
+				}
+			}
+		}
+		long[] adjustedKeys = keys;
+		String[] adjustedTerms = terms;
+		if (removed > 0) {
+			adjustedKeys = new long[keys.length - removed];
+			adjustedTerms = new String[adjustedKeys.length];
+			int[] nonZeroCounts = new int[adjustedKeys.length];
+			for (int i = 0, j = 0; i < keys.length; i++) {
+				if (adjustedCounts[i] > 0) {
+					adjustedKeys[j] = keys[i];
+					adjustedTerms[j] = terms[i];
+					nonZeroCounts[j++] = adjustedCounts[i];
+				}
+			}
+			adjustedCounts = nonZeroCounts;
+		}
+		return new SegmentHistogram(segmentKey, newSegment.numDeletedDocs(), getDeletions(newSegment), adjustedKeys, adjustedTerms, adjustedCounts);
+	}
+	
+	/**
+	 * Returns a histogram read back from a {@link RankSnapshot}, without the 
+	 * deletions of the segment.
+	 */
+	static SegmentHistogram restore(String segmentKey, int numDeleted, long[] keys, String[] terms, int[] counts) {
+		return new SegmentHistogram(segmentKey, numDeleted, null, keys, terms, counts);
+	}
+	
+	/**
+	 * Returns the name & size of the segment the histogram was counted on, 
+	 * null if the segment can not be identified after a restart.
+	 */
+	String getSegmentName() {
+		return segmentKey instanceof String ? (String) segmentKey : null;
+	}
+	
+	int getNumDeleted() {
+		return numDeleted;
+	}
+	
+	long[] getKeys() {
+		return keys;
+	}
+	
+	String[] getTerms() {
+		return terms;
+	}
+	
+	int[] getCounts() {
+		return counts;
+	}
+	
+	private static RankTable merge(List<SegmentHistogram> histograms, FieldType fieldType, SolrQuery.ORDER order) {
+		if (SegmentValues.isTrie(fieldType)) {
+			//Keys are the numeric values, merge on keys without comparing terms
+			SegmentHistogram merged = null;
+			for (SegmentHistogram histogram : histograms) {
+				merged = merged == null ? histogram : merged.mergeKeys(histogram);
+			}
+			return merged == null ? RankTable.create(new long[0], new String[0], new int[0], fieldType, order)
+					: RankTable.create(merged.keys, merged.terms, merged.counts, fieldType, order);
+		}
+		TreeMap<String, int[]> merged = new TreeMap<String, int[]>();
+		for (SegmentHistogram histogram : histograms) {
+			for (int i = 0; i < histogram.terms.length; i++) {
+				int[] count = merged.get(histogram.terms[i]);
+				if (count == null) {
+					count = new int[1];
+					merged.put(histogram.terms[i], count);
+				}
+				count[0] += histogram.counts[i];
+			}
+		}
+		return RankTable.create(merged, fieldType, order);
+	}
+	
+	/**
+	 * Merges the counts of two histograms with comparable keys, the result 
+	 * only holds keys, terms & counts.
+	 */
+	private SegmentHistogram mergeKeys(SegmentHistogram other) {
+		long[] mergedKeys = new long[keys.length + other.keys.length];
+		String[] mergedTerms = new String[mergedKeys.length];
+		int[] mergedCounts = new int[mergedKeys.length];
+		int i = 0, j = 0, size = 0;
+		while (i < keys.length || j < other.keys.length) {
+			if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+				mergedKeys[size] = keys[i];
+				mergedTerms[size] = terms[i];
+				mergedCounts[size++] = counts[i++];
+			} else if (i == keys.length || other.keys[j] < keys[i]) {
+				mergedKeys[size] = other.keys[j];
+				mergedTerms[size] = other.terms[j];
+				mergedCounts[size++] = other.counts[j++];
+			} else {
+				mergedKeys[size] = keys[i];
+				mergedTerms[size] = terms[i];
+				mergedCounts[size++] = counts[i++] + other.counts[j++];
+			}
+		}
+		return new SegmentHistogram(null, 0, null, Arrays.copyOf(mergedKeys, size), Arrays.copyOf(mergedTerms, size), Arrays.copyOf(mergedCounts, size));
+	}
+	
+	/**
+	 * Counting of one segment, split into ranges of documents that are 
+	 * counted separately & merged once all ranges are done.
+	 */
+	private static class SegmentCount {
+		
+		private final SolrIndexReader segment;
+		
+		private final SegmentValues values;
+		
+		private final boolean keepDeletions;
+		
+		private final List<RangeCount> ranges = new ArrayList<RangeCount>();
+		
+		private final List<Future<Partial>> futures = new ArrayList<Future<Partial>>();
+		
+		SegmentCount(SolrIndexReader segment, SegmentValues values, DocIdSet docs, int tasks, boolean keepDeletions) {
+			this.segment = segment;
+			this.values = values;
+			this.keepDeletions = keepDeletions;
+			int maxDoc = segment.maxDoc();
+			int numRanges = Math.max(1, Math.min(tasks, maxDoc / MIN_DOCS_PER_RANGE));
+			int rangeSize = (maxDoc + numRanges - 1) / numRanges;
+			for (int from = 0; from < maxDoc; from += rangeSize) {
+				ranges.add(new RangeCount(values, docs, from, Math.min(from + rangeSize, maxDoc)));
+			}
+		}
+		
+		void submit(ExecutorService pool) {
+			for (RangeCount range : ranges) {
+				futures.add(pool.submit(range));
+			}
+		}
+		
+		SegmentHistogram get() throws IOException {
+			Partial partial = null;
+			for (int i = 0; i < ranges.size(); i++) {
+				Partial p = futures.isEmpty() ? ranges.get(i).call() : getResult(futures.get(i));
+				partial = partial == null ? p : partial.merge(p);
+			}
+			String[] terms = new String[partial.keys.length];
+			for (int i = 0; i < terms.length; i++) {
+				terms[i] = values.getTerm(partial.keys[i]);
+			}
+			return new SegmentHistogram(getSegmentKey(segment), segment.numDeletedDocs(), keepDeletions ? getDeletions(segment) : null, 
+					partial.keys, terms, partial.counts);
+		}
+		
+		private static Partial getResult(Future<Partial> future) throws IOException {
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while counting segment histogram");
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+	
+	/**
+	 * Counts the documents of a range of a segment that are in the passed 
+	 * documents of the segment, each range iterates the documents on its own.
+	 */
+	private static class RangeCount implements Callable<Partial> {
+		
+		private final SegmentValues values;
+		
+		private final DocIdSet docs;
+		
+		private final int from;
+		
+		private final int to;
+		
+		RangeCount(SegmentValues values, DocIdSet docs, int from, int to) {
+			this.values = values;
+			this.docs = docs;
+			this.from = from;
+			this.to = to;
+		}
+		
+		public Partial call() throws IOException {
+			long[] docKeys = new long[Math.min(1024, to - from)];
+			int size = 0;
+			DocIdSetIterator it = docs == null ? null : docs.iterator();
+			for (int doc = it == null ? to : it.advance(from); doc < to; doc = it.nextDoc()) {
+				if (values.exists(doc)) {
+					if (size == docKeys.length) {
+						docKeys = Arrays.copyOf(docKeys, Math.min(size * 2, to - from));
+					}
+					docKeys[size++] = values.getKey(doc);
+				}
+			}
+			Arrays.sort(docKeys, 0, size);
+			return Partial.create(docKeys, 0, size);
+		}
+	}
+	
+	/**
+	 * Distinct keys & their counts in key order.
+	 */
+	private static class Partial {
+		
+		private final long[] keys;
+		
+		private final int[] counts;
+		
+		Partial(long[] keys, int[] counts) {
+			this.keys = keys;
+			this.counts = counts;
+		}
+		
+		static Partial create(long[] sortedKeys, int from, int to) {
+			int distinct = 0;
+			for (int i = from; i < to; i++) {
+				if (i == from || sortedKeys[i] != sortedKeys[i - 1]) {
+					distinct++;
+				}
+			}
+			long[] keys = new long[distinct];
+			int[] counts = new int[distinct];
+			int pos = -1;
+			for (int i = from; i < to; i++) {
+				if (i == from || sortedKeys[i] != sortedKeys[i - 1]) {
+					keys[++pos] = sortedKeys[i];
+				}
+				counts[pos]++;
+			}
+			return new Partial(keys, counts);
+		}
+		
+		Partial merge(Partial other) {
+			long[] mergedKeys = new long[keys.length + other.keys.length];
+			int[] mergedCounts = new int[mergedKeys.length];
+			int i = 0, j = 0, size = 0;
+			while (i < keys.length || j < other.keys.length) {
+				if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+					mergedKeys[size] = keys[i];
+					mergedCounts[size++] = counts[i++];
+				} else if (i == keys.length || other.keys[j] < keys[i]) {
+					mergedKeys[size] = other.keys[j];
+					mergedCounts[size++] = other.counts[j++];
+				} else {
+					mergedKeys[size] = keys[i];
+					mergedCounts[size++] = counts[i++] + other.counts[j++];
+				}
+			}
+			return new Partial(Arrays.copyOf(mergedKeys, size), Arrays.copyOf(mergedCounts, size));
+		}
+	}
+	
+	private static class CountThreadFactory implements ThreadFactory {
+		
+		private final AtomicInteger threadNumber = new AtomicInteger();
+		
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "rank-count-" + threadNumber.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+	
+	/**
+	 * Per document access to the rank field value of a segment as a key that
+	 * sorts in index order, along with the indexed term of a key.
+	 */
+	private static abstract class SegmentValues {
+		
+		abstract boolean exists(int doc);
+		
+		abstract long getKey(int doc);
+		
+		abstract String getTerm(long key);
+		
+		static boolean isTrie(FieldType ft) {
+			return ft instanceof TrieField || ft instanceof TrieDateField;
+		}
+		
+		static SegmentValues create(IndexReader segment, SchemaField rankField) throws IOException {
+			FieldType ft = rankField.getType();
+			if (isTrie(ft)) {
+				boolean intTerms = ft instanceof TrieField && (((TrieField) ft).getType().equals(TrieField.TrieTypes.INTEGER) 
+						|| ((TrieField) ft).getType().equals(TrieField.TrieTypes.FLOAT));
+				return new TrieValues(RankValueSource.create(segment, rankField), 
+						FieldCache.DEFAULT.getDocsWithField(segment, rankField.getName()), intTerms);
+			}
+			return new OrdValues(FieldCache.DEFAULT.getStringIndex(segment, rankField.getName()));
+		}
+	}
+	
+	private static class TrieValues extends SegmentValues {
+		
+		private final RankValueSource source;
+		
+		private final Bits docsWithField;
+		
+		private final boolean intTerms;
+		
+		TrieValues(RankValueSource source, Bits docsWithField, boolean intTerms) {
+			this.source = source;
+			this.docsWithField = docsWithField;
+			this.intTerms = intTerms;
+		}
+		
+		boolean exists(int doc) {
+			return docsWithField.get(doc);
+		}
+		
+		long getKey(int doc) {
+			return source.getKey(doc);
+		}
+		
+		String getTerm(long key) {
+			return intTerms ? NumericUtils.intToPrefixCoded((int) key) : NumericUtils.longToPrefixCoded(key);
+		}
+	}
+	
+	private static class OrdValues extends SegmentValues {
+		
+		private final FieldCache.StringIndex index;
+		
+		OrdValues(FieldCache.StringIndex index) {
+			this.index = index;
+		}
+		
+		boolean exists(int doc) {
+			return index.order[doc] != 0;
+		}
+		
+		long getKey(int doc) {
+			return index.order[doc];
+		}
+		
+		String getTerm(long key) {
+			return index.lookup[(int) key];
+		}
+	}
+}
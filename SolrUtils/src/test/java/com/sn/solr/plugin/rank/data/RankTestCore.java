@@ -0,0 +1,265 @@
+package com.sn.solr.plugin.rank.data;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.CoreDescriptor;
+import org.apache.solr.core.SolrCore;
+
+import com.sn.solr.plugin.rank.RankEngine;
+import com.sn.solr.plugin.rank.RankStrategy;
+
+/**
+ * Embedded Solr core of the rank-solr home on the test classpath, with the
+ * documents of {@link RankDataSet} indexed. Each rank key of the data set is
+ * indexed as SCORE (zero padded string), TSCORE (trie int), FSCORE (trie
+ * float) & USCORE (trie int, not stored) on as many documents as its count,
+ * with ids D000, D001, ... in rank order. REGION alternates r0 & r1, BODY is
+ * "even" or "odd" by id.
+ */
+public class RankTestCore {
+
+	private static final String SOLR_HOME = "/rank-solr/solr.xml";
+
+	private static final File DATA_DIR = new File("target/test-data");
+
+	private final CoreContainer container;
+
+	private final String name;
+
+	private SolrCore core;
+
+	private final EmbeddedSolrServer server;
+
+	private final List<String> ids = new ArrayList<String>();
+
+	private final Map<String, Integer> scores = new HashMap<String, Integer>();
+
+	public RankTestCore(String name) throws Exception {
+		this(name, "solrconfig.xml");
+	}
+
+	public RankTestCore(String name, String config) throws Exception {
+		this.name = name;
+		File dataDir = new File(DATA_DIR, name);
+		delete(dataDir);
+		File home = new File(RankTestCore.class.getResource(SOLR_HOME).toURI()).getParentFile();
+		container = new CoreContainer(home.getAbsolutePath());
+		CoreDescriptor descriptor = new CoreDescriptor(container, name, home.getAbsolutePath());
+		descriptor.setConfigName(config);
+		Properties properties = new Properties();
+		properties.setProperty("rank.test.data.dir", dataDir.getAbsolutePath());
+		descriptor.setCoreProperties(properties);
+		core = container.create(descriptor);
+		container.register(name, core, false);
+		server = new EmbeddedSolrServer(container, name);
+	}
+
+	/**
+	 * Indexes the data set, committing after each half so the index has two
+	 * segments.
+	 */
+	public RankTestCore index() throws Exception {
+		return index(0, 1);
+	}
+
+	/**
+	 * Indexes the documents of the data set whose number modulo the number of
+	 * shards is the passed shard, expected ranks still cover all of them.
+	 */
+	public RankTestCore index(int shard, int shards) throws Exception {
+		List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+		for (RankDataSet data : RankDataSet.values()) {
+			for (int i = 0; i < data.getRankValue(); i++) {
+				if (ids.size() % shards == shard) {
+					docs.add(createDoc(ids.size(), Integer.parseInt(data.getRankKey())));
+				}
+				scores.put(getId(ids.size()), Integer.parseInt(data.getRankKey()));
+				ids.add(getId(ids.size()));
+			}
+		}
+		int half = docs.size() / 2;
+		server.add(docs.subList(0, half));
+		server.commit();
+		server.add(docs.subList(half, docs.size()));
+		server.commit();
+		return this;
+	}
+
+	public static SolrInputDocument createDoc(int n, int score) {
+		SolrInputDocument doc = new SolrInputDocument();
+		doc.addField("ID", getId(n));
+		doc.addField("SCORE", String.format("%03d", score));
+		doc.addField("TSCORE", score);
+		doc.addField("FSCORE", score / 4f);
+		doc.addField("ISCORE", score);
+		doc.addField("USCORE", score);
+		doc.addField("REGION", "r" + (n % 2));
+		doc.addField("BODY", n % 2 == 0 ? "even" : "odd");
+		return doc;
+	}
+
+	public static String getId(int n) {
+		return String.format("D%03d", n);
+	}
+
+	/**
+	 * Ids of the indexed documents in ascending rank order, ties by id.
+	 */
+	public List<String> getIds() {
+		return ids;
+	}
+
+	/**
+	 * Ids of the documents with the passed BODY term, all of them if null, in
+	 * rank order of the passed order, ties by id.
+	 */
+	public List<String> getIds(final SolrQuery.ORDER order, String body) {
+		List<String> sorted = new ArrayList<String>();
+		for (String id : ids) {
+			if (body == null || (Integer.parseInt(id.substring(1)) % 2 == 0) == body.equals("even")) {
+				sorted.add(id);
+			}
+		}
+		Collections.sort(sorted, new Comparator<String>() {
+			public int compare(String id1, String id2) {
+				int c = scores.get(id1).compareTo(scores.get(id2));
+				return c != 0 ? (order.equals(SolrQuery.ORDER.desc) ? -c : c) : id1.compareTo(id2);
+			}
+		});
+		return sorted;
+	}
+
+	public Integer getScore(String id) {
+		return scores.get(id);
+	}
+
+	/**
+	 * Expected rank of the document at the passed row of the ranked ids,
+	 * computed by counting the documents before & tied with it.
+	 */
+	public Number getRank(List<String> sorted, int row, RankStrategy strategy) {
+		return getRank(sorted, row, strategy, RankEngine.DEFAULT_NTILES);
+	}
+
+	/**
+	 * Expected rank of the document at the passed row of the ranked ids, with
+	 * the passed number of buckets for NTILE.
+	 */
+	public Number getRank(List<String> sorted, int row, RankStrategy strategy, int ntiles) {
+		int score = scores.get(sorted.get(row));
+		int better = 0;
+		int ties = 0;
+		Set<Integer> betterValues = new HashSet<Integer>();
+		for (int i = 0; i < sorted.size(); i++) {
+			int other = scores.get(sorted.get(i));
+			if (other == score) {
+				ties++;
+			} else if (i < row) {
+				better++;
+				betterValues.add(other);
+			}
+		}
+		int n = sorted.size();
+		switch (strategy) {
+			case ORDINAL:
+				return (long) row + 1;
+			case DENSE:
+			case LEGACY_DENSE:
+				return betterValues.size() + 1;
+			case STANDARD:
+				return better + 1;
+			case MODIFIED:
+				return better + ties;
+			case FRACTIONAL:
+				return ((better + 1) + (better + ties)) / 2f;
+			case PERCENT_RANK:
+				return n <= 1 ? 0f : better / (float) (n - 1);
+			case CUME_DIST:
+				return (better + ties) / (float) n;
+			case NTILE:
+				//Bucket of the first tied document, the first n % ntiles buckets hold one more
+				int bucket = 0;
+				for (int end = 0; end <= better; bucket++) {
+					end += n / ntiles + (bucket < n % ntiles ? 1 : 0);
+				}
+				return bucket;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Rank data of the document at the given position of the ascending order.
+	 */
+	public static RankDataSet getData(int row) {
+		for (RankDataSet data : RankDataSet.values()) {
+			if (row < data.getRankValue()) {
+				return data;
+			}
+			row -= data.getRankValue();
+		}
+		return null;
+	}
+
+	/**
+	 * Runs a request, params are given as name & value pairs. The handler is
+	 * set with qt.
+	 */
+	public QueryResponse query(String... params) throws Exception {
+		ModifiableSolrParams solrParams = new ModifiableSolrParams();
+		solrParams.set(CommonParams.Q, "*:*");
+		for (int i = 0; i < params.length; i += 2) {
+			solrParams.set(params[i], params[i + 1]);
+		}
+		return server.query(solrParams);
+	}
+
+	/**
+	 * Reloads the core, the index of the data directory is kept.
+	 */
+	public RankTestCore reload() throws Exception {
+		container.reload(name);
+		core = container.getCore(name);
+		//The container keeps its own reference
+		core.close();
+		return this;
+	}
+
+	public EmbeddedSolrServer getServer() {
+		return server;
+	}
+
+	public SolrCore getCore() {
+		return core;
+	}
+
+	public void close() {
+		container.shutdown();
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,124 @@
+package com.sn.solr.plugin.rank.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.ShardParams;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.BinaryResponseWriter;
+import org.apache.solr.response.SolrQueryResponse;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Two shard {@link RankTestCore}s served over HTTP, so distributed requests
+ * go through the shard requests & response merging of a real deployment.
+ * Every third document of the data set is indexed on the first shard, the
+ * others on the second.
+ */
+public class RankTestShards {
+
+	private final RankTestCore[] shards;
+
+	private final HttpServer http;
+
+	public RankTestShards(String name) throws Exception {
+		shards = new RankTestCore[] { new RankTestCore(name + "-shard0"), new RankTestCore(name + "-shard1") };
+		for (int i = 0; i < shards.length; i++) {
+			shards[i].index(i, shards.length);
+		}
+		http = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		http.createContext("/solr/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					String shard = exchange.getRequestURI().getPath().split("/")[2];
+					ModifiableSolrParams params = new ModifiableSolrParams();
+					parse(exchange.getRequestURI().getRawQuery(), params);
+					parse(read(exchange.getRequestBody()), params);
+					byte[] body = execute(shards[Integer.parseInt(shard.substring(5))].getCore(), params);
+					exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+					exchange.sendResponseHeaders(200, body.length);
+					exchange.getResponseBody().write(body);
+				} catch (Exception e) {
+					exchange.sendResponseHeaders(500, -1);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		http.start();
+	}
+
+	/**
+	 * Runs a distributed request over both shards, params are given as name &
+	 * value pairs. The handler of the shard requests is set with shards.qt.
+	 */
+	public QueryResponse query(String... params) throws Exception {
+		String[] all = new String[params.length + 2];
+		all[0] = ShardParams.SHARDS;
+		all[1] = "127.0.0.1:" + http.getAddress().getPort() + "/solr/shard0,127.0.0.1:" + http.getAddress().getPort() + "/solr/shard1";
+		System.arraycopy(params, 0, all, 2, params.length);
+		return shards[0].query(all);
+	}
+
+	/**
+	 * Core holding the expected ranks of all the documents.
+	 */
+	public RankTestCore getCore() {
+		return shards[0];
+	}
+
+	public RankTestCore getShard(int shard) {
+		return shards[shard];
+	}
+
+	public void close() {
+		http.stop(0);
+		for (RankTestCore shard : shards) {
+			shard.close();
+		}
+	}
+
+	private static byte[] execute(SolrCore core, ModifiableSolrParams params) throws Exception {
+		SolrQueryRequest req = new LocalSolrQueryRequest(core, params);
+		try {
+			SolrQueryResponse rsp = new SolrQueryResponse();
+			core.execute(core.getRequestHandler(params.get("qt")), req, rsp);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			new BinaryResponseWriter().write(out, req, rsp);
+			return out.toByteArray();
+		} finally {
+			req.close();
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+			body.write(buffer, 0, n);
+		}
+		return body.toString("UTF-8");
+	}
+
+	private static void parse(String query, ModifiableSolrParams params) throws IOException {
+		if (query == null) {
+			return;
+		}
+		for (String param : query.split("&")) {
+			int i = param.indexOf('=');
+			if (i > 0) {
+				params.add(URLDecoder.decode(param.substring(0, i), "UTF-8"), URLDecoder.decode(param.substring(i + 1), "UTF-8"));
+			}
+		}
+	}
+}
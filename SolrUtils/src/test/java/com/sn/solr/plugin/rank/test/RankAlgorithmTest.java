@@ -9,6 +9,7 @@ import org.testng.annotations.Parameters;
 import org.testng.annotations.Test;
 
 import com.sn.solr.plugin.common.Pair;
+import com.sn.solr.plugin.rank.RankCursor;
 import com.sn.solr.plugin.rank.RankEngine;
 import com.sn.solr.plugin.rank.RankStrategy;
 import com.sn.solr.plugin.rank.data.RankDataProvider;
@@ -27,6 +28,58 @@ public class RankAlgorithmTest {
 		}
 	}
 	
+	@Test(testName="Method to test primitive Rank Implementations")
+	public void testPrimitiveRank() {
+		int[] counts = RankEngine.toCounts(RankDataSet.getDataSet());
+		int[] denseRanks = new int[counts.length];
+		int[] stdCompRanks = new int[counts.length];
+		int[] modCompRanks = new int[counts.length];
+		float[] fractionalRanks = new float[counts.length];
+		RankEngine.computeDenseRank(counts, denseRanks);
+		RankEngine.computeStandardRank(counts, stdCompRanks);
+		RankEngine.computeModifiedRank(counts, modCompRanks);
+		RankEngine.computeFractionalRank(counts, fractionalRanks);
+		for(RankDataSet testData : RankDataSet.values()){
+			int i = testData.ordinal();
+			assertResult(denseRanks[i], testData.getDenseResult());
+			assertResult(stdCompRanks[i], testData.getStdCompResult());
+			assertResult(modCompRanks[i], testData.getModCompResult());
+			assertResult(fractionalRanks[i], testData.getFractionalResult());
+		}
+	}
+	
+	@Test(testName="Method to test ranks carried by a RankCursor across pages")
+	public void testCursor() {
+		RankCursor cursor = RankCursor.parse(RankCursor.START);
+		Assert.assertNull(cursor.getRank(RankStrategy.DENSE));
+		long count = 0;
+		for(RankDataSet testData : RankDataSet.values()){
+			for(int i = 0; i < testData.getRankValue(); i++){
+				cursor = cursor.next(testData.getRankKey(), "D" + count++);
+				assertResult(cursor.getRank(RankStrategy.DENSE).intValue(), testData.getDenseResult());
+				assertResult(cursor.getRank(RankStrategy.STANDARD).intValue(), testData.getStdCompResult());
+				assertResult(cursor.getRank(RankStrategy.ORDINAL).longValue(), count);
+				//Pages of 7 documents
+				if(count % 7 == 0){
+					cursor = RankCursor.parse(cursor.toString());
+					Assert.assertEquals(cursor.getValue(), testData.getRankKey());
+					Assert.assertEquals(cursor.getId(), "D" + (count - 1));
+				}
+			}
+		}
+		Assert.assertFalse(RankCursor.supports(RankStrategy.MODIFIED));
+	}
+	
+	@Test(testName="Method to test rejecting invalid RankCursor tokens", expectedExceptions = IllegalArgumentException.class)
+	public void testInvalidCursor() {
+		RankCursor.parse("QUJD");
+	}
+	
+	@Test(testName="Method to test rejecting documents without a rank value", expectedExceptions = IllegalArgumentException.class)
+	public void testCursorWithoutValue() {
+		RankCursor.start().next("1", "D0").next(null, "D1");
+	}
+	
 	public static void validateResult(Map<String, Number> result, RankStrategy rankType){
 		for(RankDataSet testData : RankDataSet.values()){
 			String key = testData.getRankKey();
@@ -0,0 +1,516 @@
+package com.sn.solr.plugin.rank.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.sn.solr.plugin.common.SolrHelper;
+import com.sn.solr.plugin.comp.RankComponent;
+import com.sn.solr.plugin.rank.RankCursor;
+import com.sn.solr.plugin.rank.RankStrategy;
+import com.sn.solr.plugin.rank.data.RankDataSet;
+import com.sn.solr.plugin.rank.data.RankTestCore;
+
+public class RankComponentTest {
+
+	private RankTestCore core;
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		core = new RankTestCore("component").index();
+	}
+
+	@AfterClass
+	public void tearDown() {
+		core.close();
+	}
+
+	@Test(testName="Method to test counting trie rank fields on full precision terms")
+	public void testTrieCounts() throws Exception {
+		RefCounted<SolrIndexSearcher> ref = core.getCore().getSearcher();
+		try {
+			SolrIndexSearcher searcher = ref.get();
+			NamedList<Number> intCounts = SolrHelper.getFieldCounts(searcher, searcher.getDocSet(new MatchAllDocsQuery()), "TSCORE");
+			NamedList<Number> floatCounts = SolrHelper.getFieldCounts(searcher, searcher.getDocSet(new MatchAllDocsQuery()), "FSCORE");
+			Assert.assertEquals(intCounts.size(), RankDataSet.values().length);
+			Assert.assertEquals(floatCounts.size(), RankDataSet.values().length);
+			for(RankDataSet testData : RankDataSet.values()){
+				int score = Integer.parseInt(testData.getRankKey());
+				RankAlgorithmTest.assertResult(intCounts.get(testData.getRankKey()).intValue(), testData.getRankValue());
+				RankAlgorithmTest.assertResult(floatCounts.get(String.valueOf(score / 4f)).intValue(), testData.getRankValue());
+			}
+		} finally {
+			ref.decref();
+		}
+	}
+
+	@Test(testName="Method to test page local counting of the ranks on the page")
+	public void testLocalRank() throws Exception {
+		//Indexed terms of ISCORE do not sort in value order & fall back to facet counts
+		for(String field : new String[]{"SCORE", "ISCORE"}) {
+			for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+				for(String body : new String[]{null, "even"}) {
+					//Dense is not supported by the local method & falls back to facet counts
+					for(String strategy : new String[]{"standard", "modified", "fractional", "dense"}) {
+						for(int start : new int[]{0, 37, 160}) {
+							QueryResponse rsp = query(field, order, body, start, 13, strategy, RankComponent.PARAM_RANK_METHOD, "local");
+							assertRanks(rsp, core.getIds(order, body), start, 13, "rank", RankStrategy.getByKey(strategy));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test(testName="Method to test counting down to the last value on the page")
+	public void testBoundedRank() throws Exception {
+		//Indexed terms of ISCORE do not sort in value order & fall back to the complete table
+		for(String field : new String[]{"SCORE", "TSCORE", "FSCORE", "ISCORE"}) {
+			for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+				for(String body : new String[]{null, "even"}) {
+					//Distribution strategies need all the counts & fall back to the complete table
+					for(String strategy : new String[]{"standard", "modified", "dense", "fractional", "percentRank"}) {
+						for(int start : new int[]{0, 37, 160}) {
+							QueryResponse rsp = query(field, order, body, start, 13, strategy, RankComponent.PARAM_RANK_METHOD, "bounded");
+							assertRanks(rsp, core.getIds(order, body), start, 13, "rank", RankStrategy.getByKey(strategy));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test(testName="Method to test ranks within the partition of each document")
+	public void testPartitionRank() throws Exception {
+		for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+			//REGION partitions the documents like BODY, ties are sorted against index order
+			List<String> r0 = reverseTies(core.getIds(order, "even"));
+			List<String> r1 = reverseTies(core.getIds(order, "odd"));
+			for(String strategy : new String[]{"standard", "dense", "fractional", "ordinal"}) {
+				for(int start : new int[]{0, 37, 160}) {
+					QueryResponse rsp = query("SCORE", order, null, start, 13, strategy, CommonParams.SORT, "SCORE " + order + ",ID desc",
+							RankComponent.PARAM_RANK_PARTITION_FIELD, "REGION");
+					Assert.assertEquals(rsp.getResults().size(), Math.min(13, core.getIds().size() - start));
+					for(SolrDocument doc : rsp.getResults()) {
+						String id = (String) doc.getFieldValue("ID");
+						List<String> partition = r0.contains(id) ? r0 : r1;
+						assertRank(doc.getFieldValue("rank"), core.getRank(partition, partition.indexOf(id), RankStrategy.getByKey(strategy)));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reverses the order of the ids with the same score.
+	 */
+	private List<String> reverseTies(List<String> ids) {
+		List<String> reversed = new ArrayList<String>(ids.size());
+		int from = 0;
+		for(int i = 1; i <= ids.size(); i++) {
+			if(i == ids.size() || !core.getScore(ids.get(i)).equals(core.getScore(ids.get(from)))) {
+				for(int j = i - 1; j >= from; j--) {
+					reversed.add(ids.get(j));
+				}
+				from = i;
+			}
+		}
+		return reversed;
+	}
+
+	@Test(testName="Method to test several strategies computed from the same counts")
+	public void testStrategyList() throws Exception {
+		String[] strategies = {"dense", "standard", "ordinal", "percentRank"};
+		for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+			for(String body : new String[]{null, "even"}) {
+				//Local counts do not support all the strategies & fall back to facet counts
+				for(String method : new String[]{"facet", "local", "bounded"}) {
+					for(int start : new int[]{0, 37, 160}) {
+						//Duplicates are ignored
+						QueryResponse rsp = query("SCORE", order, body, start, 13, "dense, standard,ordinal,dense,percentRank", 
+								RankComponent.PARAM_RANK_METHOD, method, CommonParams.FL, "ID,rank,rank_dense,rank_standard,rank_ordinal,rank_percentRank");
+						List<String> ids = core.getIds(order, body);
+						Assert.assertEquals(rsp.getResults().size(), Math.max(0, Math.min(13, ids.size() - start)));
+						int row = start;
+						for(SolrDocument doc : rsp.getResults()) {
+							Assert.assertEquals(doc.getFieldValue("ID"), ids.get(row));
+							//The first strategy is also returned as rank
+							Assert.assertEquals(doc.getFieldValue("rank"), doc.getFieldValue("rank_dense"));
+							for(String strategy : strategies) {
+								assertRank(doc.getFieldValue("rank_" + strategy), core.getRank(ids, row, RankStrategy.getByKey(strategy)));
+							}
+							row++;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test(testName="Method to test n-tile buckets, including buckets of uneven size")
+	public void testNtileRank() throws Exception {
+		for(int ntiles : new int[]{4, 7, 100, 1000}) {
+			for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+				for(String body : new String[]{null, "even"}) {
+					List<String> ids = core.getIds(order, body);
+					for(String method : new String[]{"facet", "bounded"}) {
+						for(int start : new int[]{0, 37, 160}) {
+							QueryResponse rsp = query("SCORE", order, body, start, 13, "ntile", RankComponent.PARAM_RANK_METHOD, method,
+									RankComponent.PARAM_RANK_NTILES, String.valueOf(ntiles));
+							Assert.assertEquals(rsp.getResults().size(), Math.max(0, Math.min(13, ids.size() - start)));
+							int row = start;
+							for(SolrDocument doc : rsp.getResults()) {
+								Assert.assertEquals(doc.getFieldValue("ID"), ids.get(row));
+								assertRank(doc.getFieldValue("rank"), core.getRank(ids, row, RankStrategy.NTILE, ntiles));
+								row++;
+							}
+						}
+					}
+				}
+			}
+		}
+		//Buckets are of uneven size for 7 buckets
+		Assert.assertTrue(core.getIds().size() % 7 != 0);
+		//Percentiles by default
+		QueryResponse rsp = query("SCORE", SolrQuery.ORDER.desc, null, 37, 13, "ntile");
+		assertRanks(rsp, core.getIds(SolrQuery.ORDER.desc, null), 37, 13, "rank", RankStrategy.NTILE);
+	}
+
+	@Test(testName="Method to test empty pages & pages past the end")
+	public void testEdgeCases() throws Exception {
+		for(String strategy : new String[]{"dense", "standard", "ordinal", "legacyDense", "dense,standard"}) {
+			//No match
+			QueryResponse rsp = query("SCORE", SolrQuery.ORDER.asc, "none", 0, 13, strategy);
+			Assert.assertEquals(rsp.getResults().getNumFound(), 0);
+			Assert.assertTrue(rsp.getResults().isEmpty());
+			//Past the end
+			rsp = query("SCORE", SolrQuery.ORDER.desc, null, 500, 13, strategy);
+			Assert.assertEquals(rsp.getResults().getNumFound(), core.getIds().size());
+			Assert.assertTrue(rsp.getResults().isEmpty());
+			//No rows
+			rsp = query("SCORE", SolrQuery.ORDER.desc, null, 10, 0, strategy);
+			Assert.assertEquals(rsp.getResults().getNumFound(), core.getIds().size());
+			Assert.assertTrue(rsp.getResults().isEmpty());
+			//Last row
+			rsp = query("SCORE", SolrQuery.ORDER.desc, "odd", 0, 200, strategy);
+			assertRanks(rsp, core.getIds(SolrQuery.ORDER.desc, "odd"), 0, 200, "rank", RankStrategy.getByKey(strategy.split(",")[0]));
+		}
+	}
+
+	@Test(testName="Method to test rejecting unknown strategies")
+	public void testUnknownStrategy() throws Exception {
+		for(String strategy : new String[]{"bogus", "dense,bogus", "Dense"}) {
+			try {
+				query("SCORE", SolrQuery.ORDER.asc, null, 37, 13, strategy);
+				Assert.fail("Strategy accepted: " + strategy);
+			} catch(SolrServerException e) {
+				assertBadRequest(e);
+			}
+		}
+		//Empty keys are skipped
+		QueryResponse rsp = query("SCORE", SolrQuery.ORDER.asc, null, 37, 13, "dense,");
+		assertRanks(rsp, core.getIds(SolrQuery.ORDER.asc, null), 37, 13, "rank", RankStrategy.DENSE);
+	}
+
+	@Test(testName="Method to test legacy dense ranks read from per segment values")
+	@SuppressWarnings("deprecation")
+	public void testLegacyDenseRank() throws Exception {
+		//The index has two segments, tied values span both of them
+		for(String field : new String[]{"SCORE", "TSCORE", "FSCORE"}) {
+			for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+				for(String body : new String[]{null, "odd"}) {
+					for(int start : new int[]{0, 40, 81, 160}) {
+						QueryResponse rsp = query(field, order, body, start, 13, "legacyDense");
+						assertRanks(rsp, core.getIds(order, body), start, 13, "rank", RankStrategy.LEGACY_DENSE);
+					}
+				}
+			}
+		}
+	}
+
+	@Test(testName="Method to test returning only the fields requested by fl")
+	public void testReturnFields() throws Exception {
+		QueryResponse rsp = query("SCORE", SolrQuery.ORDER.asc, null, 0, 5, "dense", RankComponent.PARAM_RANK_PARTITION_FIELD, "REGION");
+		for(SolrDocument doc : rsp.getResults()){
+			Assert.assertEquals(new HashSet<String>(doc.getFieldNames()), new HashSet<String>(Arrays.asList("ID", "rank")));
+		}
+		//Without fl only the rank is returned
+		rsp = query("SCORE", SolrQuery.ORDER.asc, null, 0, 5, "dense", CommonParams.FL, "");
+		for(SolrDocument doc : rsp.getResults()){
+			Assert.assertEquals(new HashSet<String>(doc.getFieldNames()), Collections.singleton("rank"));
+		}
+		rsp = query("SCORE", SolrQuery.ORDER.asc, null, 0, 5, "dense", CommonParams.FL, "SCORE,BODY,rank");
+		for(SolrDocument doc : rsp.getResults()){
+			Assert.assertEquals(new HashSet<String>(doc.getFieldNames()), new HashSet<String>(Arrays.asList("SCORE", "BODY", "rank")));
+		}
+		rsp = query("TSCORE", SolrQuery.ORDER.desc, null, 0, 5, "dense", CommonParams.FL, "*");
+		for(SolrDocument doc : rsp.getResults()){
+			Assert.assertEquals(new HashSet<String>(doc.getFieldNames()), new HashSet<String>(Arrays.asList("ID", "SCORE", "TSCORE", "FSCORE", "ISCORE", "REGION", "BODY", "rank")));
+			Assert.assertEquals(doc.getFieldValue("TSCORE"), "32");
+		}
+	}
+
+	@Test(testName="Method to test looking up the ranks of ids")
+	public void testLookup() throws Exception {
+		String param = "D000,D005,D037,D100,D168,MISSING";
+		List<String> lookupIds = Arrays.asList(param.split(","));
+		for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+			for(String body : new String[]{null, "even"}) {
+				for(String method : new String[]{"facet", "local"}) {
+					for(String strategy : new String[]{"standard", "modified", "dense", "fractional", "ordinal"}) {
+						QueryResponse rsp = query("SCORE", order, body, 0, 1, strategy, RankComponent.PARAM_RANK_METHOD, method,
+								RankComponent.PARAM_RANK_IDS, param);
+						NamedList<?> lookup = (NamedList<?>) rsp.getResponse().get("rank_lookup");
+						Assert.assertEquals(lookup.size(), lookupIds.size());
+						List<String> ids = core.getIds(order, body);
+						for(String id : lookupIds) {
+							NamedList<?> entry = (NamedList<?>) lookup.get(id);
+							Assert.assertNotNull(entry, id);
+							int row = ids.indexOf(id);
+							//Missing ids & ids not matched by the query have no value & rank
+							if(row < 0) {
+								Assert.assertNull(entry.get("SCORE"), id);
+								Assert.assertNull(entry.get("rank"), id);
+							} else {
+								Assert.assertEquals(entry.get("SCORE"), String.format("%03d", core.getScore(id)));
+								assertRank(entry.get("rank"), core.getRank(ids, row, RankStrategy.getByKey(strategy)));
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test(testName="Method to test the window of documents around an id")
+	public void testAround() throws Exception {
+		String[] aroundIds = {"D000", "D003", "D041", "D100", "D168", "D169", "MISSING"};
+		for(String body : new String[]{null, "even"}) {
+			query("SCORE", SolrQuery.ORDER.asc, body, 0, 1, "dense");
+		}
+		Object filters = getFilterCacheSize();
+		for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+			for(String body : new String[]{null, "even"}) {
+				List<String> ids = core.getIds(order, body);
+				for(String strategy : new String[]{"standard", "dense", "fractional", "ordinal"}) {
+					for(int window : new int[]{0, 4, 50}) {
+						for(String id : aroundIds) {
+							QueryResponse rsp = query("SCORE", order, body, 0, 1, strategy, RankComponent.PARAM_RANK_AROUND, id, 
+									RankComponent.PARAM_RANK_WINDOW, String.valueOf(window));
+							int row = ids.indexOf(id);
+							//Ids not matched by the query have an empty window
+							if(row < 0) {
+								Assert.assertEquals(rsp.getResults().getNumFound(), ids.size());
+								Assert.assertTrue(rsp.getResults().isEmpty(), id);
+								continue;
+							}
+							int first = Math.max(row - window, 0);
+							int last = Math.min(row + window, ids.size() - 1);
+							assertRanks(rsp, ids, first, last - first + 1, "rank", RankStrategy.getByKey(strategy));
+						}
+					}
+				}
+			}
+		}
+		//The ranges of rank values searched are not cached as filters
+		Assert.assertEquals(getFilterCacheSize(), filters);
+	}
+
+	@Test(testName="Method to test jumping to the page of a rank")
+	public void testJump() throws Exception {
+		//Ranks in the middle of tied values, between ranks & past the last rank,
+		//pages of 13 rows end within the ties of a value
+		int[] jumps = {1, 2, 11, 12, 31, 41, 45, 82, 110, 165, 170, 171, 500};
+		for(String field : new String[]{"SCORE", "TSCORE"}) {
+			for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+				for(String body : new String[]{null, "even"}) {
+					List<String> ids = core.getIds(order, body);
+					for(String strategy : new String[]{"standard", "modified", "dense", "ordinal"}) {
+						for(int jump : jumps) {
+							QueryResponse rsp = query(field, order, body, 0, 13, strategy, RankComponent.PARAM_RANK_JUMP, String.valueOf(jump));
+							//The page starts at the first document ranked at least the jump
+							int row = 0;
+							while(row < ids.size() && core.getRank(ids, row, RankStrategy.getByKey(strategy)).doubleValue() < jump) {
+								row++;
+							}
+							assertRanks(rsp, ids, row, 13, "rank", RankStrategy.getByKey(strategy));
+							if(row < ids.size() && core.getRank(ids, row, RankStrategy.getByKey(strategy)).doubleValue() == jump) {
+								assertRank(rsp.getResults().get(0).getFieldValue("rank"), jump);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test(testName="Method to test browsing pages with a rank cursor")
+	public void testCursor() throws Exception {
+		String[] strategies = {"dense", "standard", "ordinal"};
+		for(String field : new String[]{"SCORE", "TSCORE"}) {
+			for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+				for(String body : new String[]{null, "even"}) {
+					List<String> ids = core.getIds(order, body);
+					String token = RankCursor.START;
+					int row = 0;
+					//Pages of 13 documents end within the ties of a value
+					while(true) {
+						QueryResponse rsp = query(field, order, body, 0, 13, "dense,standard,ordinal", RankComponent.PARAM_RANK_CURSOR, token,
+								CommonParams.FL, "ID,rank_dense,rank_standard,rank_ordinal");
+						Assert.assertEquals(rsp.getResults().getStart(), row);
+						for(SolrDocument doc : rsp.getResults()) {
+							Assert.assertEquals(doc.getFieldValue("ID"), ids.get(row));
+							for(String strategy : strategies) {
+								assertRank(doc.getFieldValue("rank_" + strategy), core.getRank(ids, row, RankStrategy.getByKey(strategy)));
+							}
+							row++;
+						}
+						String next = (String) rsp.getResponse().get("rank_cursor");
+						//The token parses back to the same cursor
+						Assert.assertEquals(RankCursor.parse(next).toString(), next);
+						if(rsp.getResults().isEmpty()) {
+							break;
+						}
+						Assert.assertEquals(RankCursor.parse(next).getCount(), row);
+						token = next;
+					}
+					Assert.assertEquals(row, ids.size());
+				}
+			}
+		}
+	}
+
+	@Test(testName="Method to test rejecting a rank cursor on a rank field that is not stored")
+	public void testCursorNotStored() throws Exception {
+		try {
+			query("USCORE", SolrQuery.ORDER.asc, null, 0, 13, "dense", RankComponent.PARAM_RANK_CURSOR, RankCursor.START);
+			Assert.fail("Cursor accepted on USCORE");
+		} catch(SolrServerException e) {
+			assertBadRequest(e);
+		}
+	}
+
+	@Test(testName="Method to test per phase timings in the debug output only for debug requests")
+	public void testDebugTiming() throws Exception {
+		QueryResponse rsp = query("SCORE", SolrQuery.ORDER.asc, null, 0, 13, "dense", CommonParams.DEBUG_QUERY, "true",
+				RankComponent.PARAM_RANK_IDS, "D005");
+		Assert.assertNotNull(rsp.getDebugMap());
+		NamedList<?> debug = (NamedList<?>) rsp.getDebugMap().get("rank");
+		Assert.assertNotNull(debug, "No rank debug output");
+		Assert.assertEquals(debug.get("docsLoaded"), 13);
+		NamedList<?> timing = (NamedList<?>) debug.get("timing");
+		Assert.assertNotNull(timing.get("time"));
+		for(String phase : new String[]{"facet", "docs", "rank", "lookup", "decorate"}) {
+			NamedList<?> phaseTiming = (NamedList<?>) timing.get(phase);
+			Assert.assertNotNull(phaseTiming, "No timing of " + phase);
+			Assert.assertTrue(((Number) phaseTiming.get("time")).doubleValue() >= 0);
+		}
+		//Seeking is timed only when requested
+		Assert.assertNull(timing.get("seek"));
+		rsp = query("SCORE", SolrQuery.ORDER.asc, null, 0, 13, "dense", RankComponent.PARAM_RANK_IDS, "D005");
+		Assert.assertTrue(rsp.getDebugMap() == null || rsp.getDebugMap().get("rank") == null);
+	}
+
+	@Test(testName="Method to test recording requests failing in prepare as errors")
+	public void testPrepareError() throws Exception {
+		NamedList<Object> before = getStatistics();
+		try {
+			//Rejected in prepare, the indexed terms of ISCORE do not sort in value order
+			query("ISCORE", SolrQuery.ORDER.asc, null, 0, 13, "modified", RankComponent.PARAM_RANK_JUMP, "5");
+			Assert.fail("Jump accepted on ISCORE");
+		} catch(SolrServerException e) {
+			assertBadRequest(e);
+		}
+		NamedList<Object> after = getStatistics();
+		Assert.assertEquals(getCount(after, "requests"), getCount(before, "requests") + 1);
+		Assert.assertEquals(getCount(after, "errors"), getCount(before, "errors") + 1);
+		Assert.assertEquals(getCount(after, "modified.errors"), getCount(before, "modified.errors") + 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	private NamedList<Object> getStatistics() {
+		return core.getCore().getSearchComponent("rank").getStatistics();
+	}
+
+	private static long getCount(NamedList<Object> stats, String name) {
+		Number count = (Number) stats.get(name);
+		return count == null ? 0 : count.longValue();
+	}
+
+	/**
+	 * Checks the request was rejected with a 400, the embedded server wraps 
+	 * the {@link SolrException}.
+	 */
+	private static void assertBadRequest(SolrServerException e) {
+		Throwable cause = e;
+		while(cause != null && !(cause instanceof SolrException)) {
+			cause = cause.getCause();
+		}
+		Assert.assertNotNull(cause, "No SolrException thrown");
+		Assert.assertEquals(((SolrException) cause).code(), SolrException.ErrorCode.BAD_REQUEST.code);
+	}
+
+	private Object getFilterCacheSize() {
+		return core.getCore().getInfoRegistry().get("filterCache").getStatistics().get("size");
+	}
+
+	/**
+	 * Runs a /rank request sorted on the rank field then the id, returning the
+	 * id & rank fields only.
+	 */
+	private QueryResponse query(String rankField, SolrQuery.ORDER order, String body, int start, int rows, String strategy, String... params) throws Exception {
+		List<String> all = new ArrayList<String>(Arrays.asList("qt", "/rank", CommonParams.SORT, rankField + " " + order + ",ID asc",
+				CommonParams.START, String.valueOf(start), CommonParams.ROWS, String.valueOf(rows), CommonParams.FL, "ID,rank",
+				RankComponent.PARAM_RANK_FIELD, rankField, RankComponent.PARAM_RANK_STRATEGY, strategy));
+		if(body != null) {
+			all.add(CommonParams.FQ);
+			all.add("BODY:" + body);
+		}
+		all.addAll(Arrays.asList(params));
+		return core.query(all.toArray(new String[all.size()]));
+	}
+
+	/**
+	 * Checks the page holds rows of the ranked ids from start on, with the 
+	 * expected rank in the passed field.
+	 */
+	private void assertRanks(QueryResponse rsp, List<String> ids, int start, int rows, String field, RankStrategy strategy) {
+		SolrDocumentList docs = rsp.getResults();
+		Assert.assertEquals(docs.getNumFound(), ids.size());
+		Assert.assertEquals(docs.getStart(), start);
+		Assert.assertEquals(docs.size(), Math.max(0, Math.min(rows, ids.size() - start)));
+		int row = start;
+		for(SolrDocument doc : docs){
+			Assert.assertEquals(doc.getFieldValue("ID"), ids.get(row));
+			assertRank(doc.getFieldValue(field), core.getRank(ids, row, strategy));
+			row++;
+		}
+	}
+
+	static void assertRank(Object rank, Number expected) {
+		Assert.assertNotNull(rank, "No rank found, expected " + expected);
+		if(expected instanceof Float) {
+			Assert.assertEquals(((Number) rank).floatValue(), expected.floatValue(), 1e-6f);
+		} else {
+			RankAlgorithmTest.assertResult(((Number) rank).longValue(), expected.longValue());
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.sn.solr.plugin.rank.test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ShardParams;
+import org.apache.solr.common.util.NamedList;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.sn.solr.plugin.comp.RankComponent;
+import com.sn.solr.plugin.rank.RankStrategy;
+import com.sn.solr.plugin.rank.data.RankTestCore;
+import com.sn.solr.plugin.rank.data.RankTestShards;
+
+public class RankDistributedTest {
+
+	private RankTestShards shards;
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		shards = new RankTestShards("distributed");
+	}
+
+	@AfterClass
+	public void tearDown() {
+		shards.close();
+	}
+
+	@Test(testName="Method to test ranks merged from the shard rank histograms")
+	public void testMergedRank() throws Exception {
+		RankTestCore core = shards.getCore();
+		for(String field : new String[]{"SCORE", "TSCORE"}) {
+			for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+				List<String> ids = core.getIds(order, null);
+				for(String strategy : new String[]{"dense", "standard", "modified", "fractional", "ordinal"}) {
+					for(int start : new int[]{0, 13, 100, 160}) {
+						QueryResponse rsp = shards.query("qt", "/rank", ShardParams.SHARDS_QT, "/rank", CommonParams.SORT, field + " " + order + ",ID asc", 
+								CommonParams.START, String.valueOf(start), CommonParams.ROWS, "13", CommonParams.FL, "ID,rank",
+								RankComponent.PARAM_RANK_FIELD, field, RankComponent.PARAM_RANK_STRATEGY, strategy);
+						SolrDocumentList docs = rsp.getResults();
+						Assert.assertEquals(docs.getNumFound(), ids.size());
+						Assert.assertEquals(docs.size(), Math.min(13, ids.size() - start));
+						int row = start;
+						for(SolrDocument doc : docs){
+							Assert.assertEquals(doc.getFieldValue("ID"), ids.get(row));
+							//The rank field is only fetched from the shards for ranking
+							Assert.assertEquals(new HashSet<String>(doc.getFieldNames()), new HashSet<String>(Arrays.asList("ID", "rank")));
+							Number expected = core.getRank(ids, row, RankStrategy.getByKey(strategy));
+							Assert.assertEquals(((Number) doc.getFieldValue("rank")).doubleValue(), expected.doubleValue(), 1e-6, "Failed for " + ids.get(row));
+							row++;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test(testName="Method to test n-tile buckets of the merged ranks")
+	public void testMergedNtileRank() throws Exception {
+		RankTestCore core = shards.getCore();
+		for(int ntiles : new int[]{4, 7, 100}) {
+			for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+				List<String> ids = core.getIds(order, null);
+				for(int start : new int[]{0, 13, 100, 160}) {
+					QueryResponse rsp = shards.query("qt", "/rank", ShardParams.SHARDS_QT, "/rank", CommonParams.SORT, "SCORE " + order + ",ID asc", 
+							CommonParams.START, String.valueOf(start), CommonParams.ROWS, "13", CommonParams.FL, "ID,rank",
+							RankComponent.PARAM_RANK_FIELD, "SCORE", RankComponent.PARAM_RANK_STRATEGY, "ntile", RankComponent.PARAM_RANK_NTILES, String.valueOf(ntiles));
+					SolrDocumentList docs = rsp.getResults();
+					Assert.assertEquals(docs.size(), Math.min(13, ids.size() - start));
+					int row = start;
+					for(SolrDocument doc : docs){
+						Assert.assertEquals(doc.getFieldValue("ID"), ids.get(row));
+						RankComponentTest.assertRank(doc.getFieldValue("rank"), core.getRank(ids, row, RankStrategy.NTILE, ntiles));
+						row++;
+					}
+				}
+			}
+		}
+	}
+
+	@Test(testName="Method to test approximate requests are ranked exactly from the shard histograms")
+	public void testMergedApproxRank() throws Exception {
+		RankTestCore core = shards.getCore();
+		for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+			List<String> ids = core.getIds(order, null);
+			for(String strategy : new String[]{"dense", "standard", "percentRank"}) {
+				QueryResponse rsp = shards.query("qt", "/rank", ShardParams.SHARDS_QT, "/rank", CommonParams.SORT, "TSCORE " + order + ",ID asc", 
+						CommonParams.START, "100", CommonParams.ROWS, "13", CommonParams.FL, "ID,rank", RankComponent.PARAM_RANK_FIELD, "TSCORE", 
+						RankComponent.PARAM_RANK_STRATEGY, strategy, RankComponent.PARAM_RANK_APPROX, "true", RankComponent.PARAM_RANK_APPROX_ERROR, "0.2");
+				int row = 100;
+				for(SolrDocument doc : rsp.getResults()){
+					Assert.assertEquals(doc.getFieldValue("ID"), ids.get(row));
+					RankComponentTest.assertRank(doc.getFieldValue("rank"), core.getRank(ids, row, RankStrategy.getByKey(strategy)));
+					row++;
+				}
+				Assert.assertEquals(row, 113);
+			}
+		}
+	}
+
+	@Test(testName="Method to test only the fields asked for by fl are returned")
+	public void testReturnFields() throws Exception {
+		QueryResponse rsp = shards.query("qt", "/rank", ShardParams.SHARDS_QT, "/rank", CommonParams.SORT, "SCORE asc,ID asc", CommonParams.FL, "ID",
+				RankComponent.PARAM_RANK_FIELD, "SCORE", RankComponent.PARAM_RANK_STRATEGY, "dense");
+		Assert.assertFalse(rsp.getResults().isEmpty());
+		for(SolrDocument doc : rsp.getResults()){
+			Assert.assertEquals(new HashSet<String>(doc.getFieldNames()), Collections.singleton("ID"));
+		}
+		rsp = shards.query("qt", "/rank", ShardParams.SHARDS_QT, "/rank", CommonParams.SORT, "SCORE asc,ID asc", CommonParams.FL, "ID,SCORE",
+				RankComponent.PARAM_RANK_FIELD, "SCORE", RankComponent.PARAM_RANK_STRATEGY, "dense");
+		for(SolrDocument doc : rsp.getResults()){
+			Assert.assertEquals(new HashSet<String>(doc.getFieldNames()), new HashSet<String>(Arrays.asList("ID", "SCORE")));
+		}
+	}
+
+	@Test(testName="Method to test recording distributed requests once & shard requests apart")
+	public void testStatistics() throws Exception {
+		NamedList<Object> top = getStatistics(0);
+		NamedList<Object> shard = getStatistics(1);
+		shards.query("qt", "/rank", ShardParams.SHARDS_QT, "/rank", CommonParams.SORT, "SCORE asc,ID asc", CommonParams.FL, "ID,rank",
+				RankComponent.PARAM_RANK_FIELD, "SCORE", RankComponent.PARAM_RANK_STRATEGY, "dense");
+		//The first core handles the distributed request & serves a shard
+		Assert.assertEquals(getCount(getStatistics(0), "dense.requests"), getCount(top, "dense.requests") + 1);
+		Assert.assertEquals(getCount(getStatistics(1), "dense.requests"), getCount(shard, "dense.requests"));
+		Assert.assertTrue(getCount(getStatistics(0), "shard.dense.requests") > getCount(top, "shard.dense.requests"));
+		Assert.assertTrue(getCount(getStatistics(1), "shard.dense.requests") > getCount(shard, "shard.dense.requests"));
+	}
+
+	@SuppressWarnings("unchecked")
+	private NamedList<Object> getStatistics(int shard) {
+		return shards.getShard(shard).getCore().getSearchComponent("rank").getStatistics();
+	}
+
+	private static long getCount(NamedList<Object> stats, String name) {
+		Number count = (Number) stats.get(name);
+		return count == null ? 0 : count.longValue();
+	}
+}
@@ -0,0 +1,81 @@
+package com.sn.solr.plugin.rank.test;
+
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.util.NamedList;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.sn.solr.plugin.comp.RankComponent;
+import com.sn.solr.plugin.rank.RankStrategy;
+import com.sn.solr.plugin.rank.data.RankTestCore;
+
+public class RankExportHandlerTest {
+
+	private RankTestCore core;
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		core = new RankTestCore("export").index();
+		//A document without a rank value is matched but not exported
+		SolrInputDocument doc = new SolrInputDocument();
+		doc.addField("ID", "X000");
+		doc.addField("BODY", "even");
+		core.getServer().add(doc);
+		core.getServer().commit();
+	}
+
+	@AfterClass
+	public void tearDown() {
+		core.close();
+	}
+
+	@Test(testName="Method to test exporting the ranked result set in rank order")
+	public void testExport() throws Exception {
+		for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+			for(String body : new String[]{null, "even"}) {
+				for(String strategy : new String[]{"dense", "standard", "modified", "fractional", "ordinal"}) {
+					QueryResponse rsp = core.query("qt", "/rank/export", CommonParams.SORT, "SCORE " + order, 
+							CommonParams.FQ, body == null ? "" : "BODY:" + body,
+							RankComponent.PARAM_RANK_FIELD, "SCORE", RankComponent.PARAM_RANK_STRATEGY, strategy);
+					List<String> ids = core.getIds(order, body);
+					Assert.assertEquals(((Number) rsp.getResponse().get("numFound")).intValue(), ids.size());
+					List<?> ranks = (List<?>) rsp.getResponse().get("ranks");
+					Assert.assertEquals(ranks.size(), ids.size());
+					for(int row = 0; row < ranks.size(); row++) {
+						NamedList<?> rank = (NamedList<?>) ranks.get(row);
+						//Ties are exported in index order, which is the id order of the test index
+						Assert.assertEquals(rank.get("ID"), ids.get(row));
+						Assert.assertEquals(rank.get("SCORE"), String.format("%03d", core.getScore(ids.get(row))));
+						RankComponentTest.assertRank(rank.get("rank"), core.getRank(ids, row, RankStrategy.getByKey(strategy)));
+					}
+				}
+			}
+		}
+	}
+
+	@Test(testName="Method to test exporting the ranks of several strategies")
+	public void testStrategyList() throws Exception {
+		String[] strategies = {"dense", "ordinal", "fractional"};
+		QueryResponse rsp = core.query("qt", "/rank/export", CommonParams.SORT, "SCORE desc", 
+				RankComponent.PARAM_RANK_FIELD, "SCORE", RankComponent.PARAM_RANK_STRATEGY, "dense,ordinal,fractional");
+		List<String> ids = core.getIds(SolrQuery.ORDER.desc, null);
+		List<?> ranks = (List<?>) rsp.getResponse().get("ranks");
+		Assert.assertEquals(ranks.size(), ids.size());
+		for(int row = 0; row < ranks.size(); row++) {
+			NamedList<?> rank = (NamedList<?>) ranks.get(row);
+			Assert.assertEquals(rank.get("ID"), ids.get(row));
+			//The first strategy is also returned as rank
+			RankComponentTest.assertRank(rank.get("rank"), core.getRank(ids, row, RankStrategy.DENSE));
+			for(String strategy : strategies) {
+				RankComponentTest.assertRank(rank.get("rank_" + strategy), core.getRank(ids, row, RankStrategy.getByKey(strategy)));
+			}
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.sn.solr.plugin.rank.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.sn.solr.plugin.common.SolrHelper;
+import com.sn.solr.plugin.rank.RankSnapshot;
+import com.sn.solr.plugin.rank.RankSnapshotListener;
+import com.sn.solr.plugin.rank.RankTable;
+import com.sn.solr.plugin.rank.RankTableKey;
+import com.sn.solr.plugin.rank.data.RankTestCore;
+
+public class RankSnapshotListenerTest {
+
+	private static final String FIELD = "SCORE";
+
+	private static final int INTERVAL = 2;
+
+	private RankTestCore core;
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		core = new RankTestCore("snapshot", "solrconfig-snapshot.xml").index();
+	}
+
+	@AfterClass
+	public void tearDown() {
+		core.close();
+	}
+
+	@Test(testName="Method to test writing rank snapshots on an interval of commits & reusing histograms in between")
+	public void testInterval() throws Exception {
+		RankTable table = getCachedTable(SolrQuery.ORDER.asc);
+		Assert.assertFalse(RankSnapshot.isMapped(table));
+		Assert.assertEquals(table.getNumDocs(), core.getIds().size());
+		Assert.assertNotNull(getCachedTable(SolrQuery.ORDER.desc));
+
+		long written = getSnapshotGenerations().get(0);
+		for (int i = 0; i < 2 * INTERVAL; i++) {
+			core.getServer().add(RankTestCore.createDoc(core.getIds().size() + i, 32));
+			core.getServer().commit();
+			RankTable next = getCachedTable(SolrQuery.ORDER.asc);
+			//Histograms of the segments of the previous searcher are reused
+			Assert.assertSame(next.getHistograms().get(0), table.getHistograms().get(0));
+			Assert.assertEquals(next.getNumDocs(), table.getNumDocs() + 1);
+			table = next;
+
+			//A single snapshot is kept, written once the interval is reached
+			List<Long> generations = getSnapshotGenerations();
+			Assert.assertEquals(generations.size(), 1);
+			long generation = getGeneration();
+			if (generation - written >= INTERVAL) {
+				Assert.assertEquals(generations.get(0).longValue(), generation);
+			} else {
+				Assert.assertEquals(generations.get(0).longValue(), written);
+			}
+			written = generations.get(0);
+		}
+	}
+
+	@Test(testName="Method to test mapping the rank snapshot after a reload", dependsOnMethods="testInterval")
+	public void testReload() throws Exception {
+		if (getSnapshotGenerations().get(0) != getGeneration()) {
+			core.getServer().add(RankTestCore.createDoc(core.getIds().size() + 2 * INTERVAL, 32));
+			core.getServer().commit();
+		}
+		Assert.assertEquals(getSnapshotGenerations().get(0).longValue(), getGeneration());
+		RankTable counted = getCachedTable(SolrQuery.ORDER.desc);
+
+		core.reload();
+		for (SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+			Assert.assertTrue(RankSnapshot.isMapped(getCachedTable(order)));
+		}
+		RankTable mapped = getCachedTable(SolrQuery.ORDER.desc);
+		Assert.assertEquals(mapped.size(), counted.size());
+		Assert.assertEquals(mapped.getNumDocs(), counted.getNumDocs());
+		for (int i = 0; i < counted.size(); i++) {
+			Assert.assertEquals(mapped.getTerm(i), counted.getTerm(i));
+			Assert.assertEquals(mapped.getCount(i), counted.getCount(i));
+		}
+
+		//The first commit after the reload reuses the histograms of the snapshot
+		core.getServer().deleteById(core.getIds().get(0));
+		core.getServer().commit();
+		RankTable recounted = getCachedTable(SolrQuery.ORDER.asc);
+		Assert.assertFalse(RankSnapshot.isMapped(recounted));
+		Assert.assertEquals(recounted.getNumDocs(), counted.getNumDocs() - 1);
+		Assert.assertEquals(getSnapshotGenerations().size(), 1);
+	}
+
+	@Test(testName="Method to test a reload on a commit between two snapshots", dependsOnMethods="testReload")
+	public void testStaleReload() throws Exception {
+		long written = getSnapshotGenerations().get(0);
+		Assert.assertTrue(written < getGeneration());
+		RankTable counted = getCachedTable(SolrQuery.ORDER.asc);
+
+		//The older snapshot is brought up to the commit & written for it
+		core.reload();
+		Assert.assertEquals(getSnapshotGenerations().size(), 1);
+		Assert.assertEquals(getSnapshotGenerations().get(0).longValue(), getGeneration());
+		for (SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+			Assert.assertTrue(RankSnapshot.isMapped(getCachedTable(order)));
+		}
+		RankTable mapped = getCachedTable(SolrQuery.ORDER.asc);
+		Assert.assertEquals(mapped.size(), counted.size());
+		Assert.assertEquals(mapped.getNumDocs(), counted.getNumDocs());
+		for (int i = 0; i < counted.size(); i++) {
+			Assert.assertEquals(mapped.getTerm(i), counted.getTerm(i));
+			Assert.assertEquals(mapped.getCount(i), counted.getCount(i));
+		}
+		Assert.assertEquals(mapped.getHistograms().size(), counted.getHistograms().size());
+	}
+
+	private RankTable getCachedTable(SolrQuery.ORDER order) {
+		RefCounted<SolrIndexSearcher> ref = core.getCore().getSearcher();
+		try {
+			@SuppressWarnings("unchecked")
+			SolrCache<RankTableKey, RankTable> cache = ref.get().getCache(SolrHelper.RANK_CACHE);
+			return cache.get(RankSnapshotListener.createKey(FIELD, order));
+		} finally {
+			ref.decref();
+		}
+	}
+
+	private long getGeneration() throws Exception {
+		RefCounted<SolrIndexSearcher> ref = core.getCore().getSearcher();
+		try {
+			return ref.get().getReader().getIndexCommit().getGeneration();
+		} finally {
+			ref.decref();
+		}
+	}
+
+	private List<Long> getSnapshotGenerations() {
+		List<Long> generations = new ArrayList<Long>();
+		File[] files = new File(core.getCore().getDataDir(), "rank").listFiles();
+		if (files != null) {
+			for (File file : files) {
+				generations.add(RankSnapshot.getGeneration(file, FIELD));
+			}
+		}
+		return generations;
+	}
+}
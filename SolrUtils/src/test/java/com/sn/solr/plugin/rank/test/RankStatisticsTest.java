@@ -0,0 +1,61 @@
+package com.sn.solr.plugin.rank.test;
+
+import org.apache.solr.common.util.NamedList;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.sn.solr.plugin.comp.RankStatistics;
+import com.sn.solr.plugin.rank.RankStrategy;
+
+public class RankStatisticsTest {
+
+	private static final long MILLIS = 1000000L;
+
+	@Test(testName="Method to test bucketing request latencies & reading percentiles")
+	public void testLatency() {
+		RankStatistics statistics = new RankStatistics();
+		for(int i = 0; i < 98; i++) {
+			statistics.recordRequest(RankStrategy.DENSE, System.nanoTime() - 3 * MILLIS, false);
+		}
+		statistics.recordRequest(RankStrategy.DENSE, System.nanoTime() - 150 * MILLIS, false);
+		statistics.recordRequest(RankStrategy.DENSE, System.nanoTime() - 6000 * MILLIS, true);
+		statistics.recordRequest(RankStrategy.ORDINAL, System.nanoTime() - 6000 * MILLIS, false);
+		NamedList<Object> stats = statistics.toNamedList();
+		Assert.assertEquals(stats.get("requests"), 101L);
+		Assert.assertEquals(stats.get("errors"), 1L);
+		Assert.assertEquals(stats.get("dense.requests"), 100L);
+		Assert.assertEquals(stats.get("dense.errors"), 1L);
+		Assert.assertEquals(stats.get("dense.latency.lt1ms"), 0L);
+		Assert.assertEquals(stats.get("dense.latency.lt5ms"), 98L);
+		Assert.assertEquals(stats.get("dense.latency.lt200ms"), 1L);
+		Assert.assertEquals(stats.get("dense.latency.ge5000ms"), 1L);
+		Assert.assertEquals(stats.get("dense.p50"), 5L);
+		Assert.assertEquals(stats.get("dense.p99"), 200L);
+		//Percentiles in the unbounded bucket are reported as -1
+		Assert.assertEquals(stats.get("ordinal.p50"), -1L);
+		Assert.assertEquals(stats.get("ordinal.latency.ge5000ms"), 1L);
+		//Strategies without requests are left out
+		Assert.assertNull(stats.get("standard.requests"));
+		//Requests without a known strategy are counted in the totals only
+		statistics.recordRequest(null, System.nanoTime(), true);
+		stats = statistics.toNamedList();
+		Assert.assertEquals(stats.get("requests"), 102L);
+		Assert.assertEquals(stats.get("errors"), 2L);
+		Assert.assertEquals(stats.get("dense.errors"), 1L);
+	}
+
+	@Test(testName="Method to test recording counted values & ranked documents")
+	public void testCounts() {
+		RankStatistics statistics = new RankStatistics();
+		statistics.recordRequest(RankStrategy.STANDARD, System.nanoTime(), false);
+		statistics.recordRequest(RankStrategy.STANDARD, System.nanoTime(), false);
+		statistics.recordCounts(RankStrategy.STANDARD, 10, 5);
+		statistics.recordCounts(RankStrategy.STANDARD, 30, 7);
+		statistics.recordCounts(null, 100, 100);
+		NamedList<Object> stats = statistics.toNamedList();
+		Assert.assertEquals(stats.get("standard.avgValues"), 20f);
+		Assert.assertEquals(stats.get("standard.maxValues"), 30L);
+		Assert.assertEquals(stats.get("standard.docs"), 12L);
+		Assert.assertEquals(stats.get("standard.latency.lt1ms"), 2L);
+	}
+}
@@ -0,0 +1,97 @@
+package com.sn.solr.plugin.rank.test;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.sn.solr.plugin.common.SolrHelper;
+import com.sn.solr.plugin.comp.RankComponent;
+import com.sn.solr.plugin.rank.RankSketch;
+import com.sn.solr.plugin.rank.RankSketchKey;
+import com.sn.solr.plugin.rank.RankTable;
+import com.sn.solr.plugin.rank.RankTableKey;
+import com.sn.solr.plugin.rank.data.RankTestCore;
+
+public class RankTableRegeneratorTest {
+
+	private static final List<Query> FILTERS = Collections.<Query>singletonList(new TermQuery(new Term("BODY", "even")));
+
+	private static final RankTableKey KEY = new RankTableKey("SCORE", SolrQuery.ORDER.desc, new MatchAllDocsQuery(), FILTERS);
+
+	private static final RankSketchKey SKETCH_KEY = new RankSketchKey(new RankTableKey("TSCORE", SolrQuery.ORDER.asc, new MatchAllDocsQuery(), null), 0.01);
+
+	private RankTestCore core;
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		core = new RankTestCore("regenerator").index();
+	}
+
+	@AfterClass
+	public void tearDown() {
+		core.close();
+	}
+
+	@Test(testName="Method to test autowarming rank tables & sketches into the cache of a new searcher")
+	public void testRegeneration() throws Exception {
+		core.query("qt", "/rank", "sort", "SCORE desc", "fq", "BODY:even", RankComponent.PARAM_RANK_FIELD, "SCORE", 
+				RankComponent.PARAM_RANK_STRATEGY, "dense");
+		core.query("qt", "/rank", "sort", "TSCORE asc", RankComponent.PARAM_RANK_FIELD, "TSCORE", RankComponent.PARAM_RANK_STRATEGY, "dense",
+				RankComponent.PARAM_RANK_APPROX, "true", RankComponent.PARAM_RANK_APPROX_ERROR, "0.01");
+		Assert.assertNotNull(getCached(KEY), "Table not cached");
+		Assert.assertNotNull(getCached(SKETCH_KEY), "Sketch not cached");
+
+		//Even ids are matched by the filter
+		int n = core.getIds().size() + (core.getIds().size() % 2);
+		core.getServer().add(RankTestCore.createDoc(n, 33));
+		core.getServer().commit();
+
+		//The new searcher holds the entries counted against its own documents before any request
+		RankTable table = (RankTable) getCached(KEY);
+		Assert.assertNotNull(table, "Table not regenerated");
+		RankTable expected = createRankTable();
+		Assert.assertEquals(table.getNumDocs(), expected.getNumDocs());
+		Assert.assertEquals(table.getNumDocs(), core.getIds(SolrQuery.ORDER.desc, "even").size() + 1);
+		Assert.assertEquals(table.size(), expected.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Assert.assertEquals(table.getTerm(i), expected.getTerm(i));
+			Assert.assertEquals(table.getCount(i), expected.getCount(i));
+		}
+		Assert.assertEquals(table.getTerm(0), "033");
+		RankSketch sketch = (RankSketch) getCached(SKETCH_KEY);
+		Assert.assertNotNull(sketch, "Sketch not regenerated");
+		Assert.assertEquals(sketch.getNumDocs(), core.getIds().size() + 1);
+	}
+
+	private Object getCached(Object key) {
+		RefCounted<SolrIndexSearcher> ref = core.getCore().getSearcher();
+		try {
+			@SuppressWarnings("unchecked")
+			SolrCache<Object, Object> cache = ref.get().getCache(SolrHelper.RANK_CACHE);
+			return cache.get(key);
+		} finally {
+			ref.decref();
+		}
+	}
+
+	private RankTable createRankTable() throws Exception {
+		RefCounted<SolrIndexSearcher> ref = core.getCore().getSearcher();
+		try {
+			return SolrHelper.createRankTable(ref.get(), KEY);
+		} finally {
+			ref.decref();
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package com.sn.solr.plugin.rank.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.IntField;
+import org.apache.solr.schema.SortableIntField;
+import org.apache.solr.schema.TrieFloatField;
+import org.testng.Assert;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+
+import com.sn.solr.plugin.rank.RankEngine;
+import com.sn.solr.plugin.rank.RankSketch;
+import com.sn.solr.plugin.rank.RankSnapshot;
+import com.sn.solr.plugin.rank.RankStrategy;
+import com.sn.solr.plugin.rank.RankTable;
+import com.sn.solr.plugin.rank.data.RankDataProvider;
+import com.sn.solr.plugin.rank.data.RankDataSet;
+
+public class RankTableTest {
+	
+	@Test(testName="Method to test rank lookups from a RankTable", dataProvider="rankStrategies", dataProviderClass = RankDataProvider.class)
+	@Parameters({"rankStrategies"})
+	public void testRank(String[] rankStrategies) {
+		RankTable table = RankTable.create(createCounts(), new SortableIntField(), SolrQuery.ORDER.asc);
+		for(String rankStrategyKey : rankStrategies) {
+			RankStrategy rankStrategy = RankStrategy.getByKey(rankStrategyKey);
+			for(RankDataSet testData : RankDataSet.values()){
+				Number rank = RankEngine.computeRank(table, table.indexOf(testData.getRankKey()), rankStrategy);
+				Assert.assertNotNull(rank, "No rank found for: " + testData.getRankKey());
+				switch(rankStrategy){
+					case DENSE:
+						Assert.assertEquals(rank.intValue(), testData.getDenseResult());
+						break;
+					case STANDARD:
+						Assert.assertEquals(rank.intValue(), testData.getStdCompResult());
+						break;
+					case MODIFIED:
+						Assert.assertEquals(rank.intValue(), testData.getModCompResult());
+						break;
+					case FRACTIONAL:
+						Assert.assertEquals(rank.floatValue(), testData.getFractionalResult());
+						break;
+				}
+			}
+		}
+	}
+	
+	@Test(testName="Method to test descending RankTable")
+	public void testDescending() {
+		RankTable table = RankTable.create(createCounts(), new SortableIntField(), SolrQuery.ORDER.desc);
+		Assert.assertEquals(table.size(), RankDataSet.values().length);
+		Assert.assertEquals(table.getValue(0), RankDataSet.SET_10.getRankKey());
+		Assert.assertEquals(RankEngine.computeRank(table, table.indexOf(RankDataSet.SET_10.getRankKey()), RankStrategy.STANDARD), 1);
+		Assert.assertEquals(RankEngine.computeRank(table, table.indexOf(RankDataSet.SET_9.getRankKey()), RankStrategy.STANDARD), 61);
+		Assert.assertEquals(table.indexOf("1000"), -1);
+	}
+	
+	@Test(testName="Method to test distribution ranks from a RankTable")
+	public void testDistribution() {
+		RankTable table = RankTable.create(createCounts(), new SortableIntField(), SolrQuery.ORDER.asc);
+		int pos = table.indexOf(RankDataSet.SET_5.getRankKey());
+		Assert.assertEquals(RankEngine.computeRank(table, pos, RankStrategy.PERCENT_RANK), 41 / 168f);
+		Assert.assertEquals(RankEngine.computeRank(table, pos, RankStrategy.CUME_DIST), 81 / 169f);
+		Assert.assertEquals(RankEngine.computeRank(table, pos, RankStrategy.NTILE), 21);
+		Assert.assertEquals(RankEngine.computeRank(table, 0, RankStrategy.PERCENT_RANK), 0f);
+		//169 documents in quartiles of 43, 42, 42 & 42
+		Assert.assertEquals(RankEngine.computeRank(table, pos, RankStrategy.NTILE, table.getNumDocs(), 4), 1);
+		Assert.assertEquals(RankEngine.computeRank(table, table.indexOf(RankDataSet.SET_9.getRankKey()), RankStrategy.NTILE, table.getNumDocs(), 4), 3);
+		Assert.assertEquals(RankEngine.computeNtile(42, 169, 4), 1);
+		Assert.assertEquals(RankEngine.computeNtile(43, 169, 4), 2);
+		Assert.assertEquals(RankEngine.computeNtile(168, 169, 4), 4);
+		Assert.assertEquals(RankEngine.computeNtile(2, 3, 10), 3);
+	}
+	
+	@Test(testName="Method to test approximate ranks from a RankSketch")
+	public void testSketch() {
+		RankTable table = RankTable.create(createCounts(), new SortableIntField(), SolrQuery.ORDER.asc);
+		RankSketch exact = createSketch(table, 0.0001);
+		RankSketch sketch = createSketch(table, 0.2);
+		Assert.assertEquals(sketch.getNumDocs(), table.getNumDocs());
+		Assert.assertEquals(sketch.getErrorBound(), 33);
+		Assert.assertTrue(sketch.size() < table.size());
+		for(SolrQuery.ORDER order : SolrQuery.ORDER.values()){
+			RankTable ordered = RankTable.create(createCounts(), new SortableIntField(), order);
+			for(RankDataSet testData : RankDataSet.values()){
+				int pos = ordered.indexOf(testData.getRankKey());
+				Assert.assertEquals(exact.getBetter(testData.getRankKey(), order), ordered.getBetter(pos));
+				Assert.assertEquals(RankEngine.computeRank(exact, testData.getRankKey(), order, RankStrategy.DENSE, 100), pos + 1);
+				Assert.assertTrue(Math.abs(sketch.getBetter(testData.getRankKey(), order) - ordered.getBetter(pos)) <= sketch.getErrorBound());
+				Assert.assertTrue(Math.abs(sketch.getDistinctBetter(testData.getRankKey(), order) - pos) <= sketch.getErrorBound());
+			}
+		}
+		//Values holding more documents than the bound are always exact
+		Assert.assertEquals(sketch.getBetter(RankDataSet.SET_10.getRankKey(), SolrQuery.ORDER.asc), 109);
+		Assert.assertNull(RankEngine.computeRank(sketch, null, SolrQuery.ORDER.asc, RankStrategy.STANDARD, 100));
+	}
+	
+	@Test(testName="Method to test finding the value of a row of the ranked documents")
+	public void testIndexAt() {
+		for(SolrQuery.ORDER order : SolrQuery.ORDER.values()){
+			RankTable table = RankTable.create(createCounts(), new SortableIntField(), order);
+			for(int pos = 0; pos < table.size(); pos++){
+				Assert.assertEquals(table.indexAt(table.getBetter(pos)), pos);
+				Assert.assertEquals(table.indexAt(table.getBetter(pos) + table.getCount(pos) - 1), pos);
+			}
+			Assert.assertEquals(table.indexAt(-1), -1);
+			Assert.assertEquals(table.indexAt(table.getNumDocs()), -1);
+		}
+	}
+	
+	@Test(testName="Method to test finding the first row of a rank")
+	public void testRow() {
+		RankTable table = RankTable.create(createCounts(), new SortableIntField(), SolrQuery.ORDER.asc);
+		for(RankStrategy rankStrategy : new RankStrategy[]{ RankStrategy.DENSE, RankStrategy.STANDARD, RankStrategy.MODIFIED, RankStrategy.FRACTIONAL, RankStrategy.CUME_DIST }){
+			for(int pos = 0; pos < table.size(); pos++){
+				double rank = RankEngine.computeRank(table, pos, rankStrategy).doubleValue();
+				Assert.assertEquals(RankEngine.computeRow(table, rank, rankStrategy, 100), table.getBetter(pos));
+			}
+		}
+		Assert.assertEquals(RankEngine.computeRow(table, 0, RankStrategy.STANDARD, 100), 0);
+		Assert.assertEquals(RankEngine.computeRow(table, 42, RankStrategy.STANDARD, 100), table.getBetter(table.indexOf(RankDataSet.SET_5.getRankKey())));
+		//No document has a standard rank of 43, the next value is ranked 82
+		Assert.assertEquals(RankEngine.computeRow(table, 43, RankStrategy.STANDARD, 100), table.getBetter(table.indexOf(RankDataSet.SET_6.getRankKey())));
+		Assert.assertEquals(RankEngine.computeRow(table, 1000, RankStrategy.DENSE, 100), table.getNumDocs());
+		Assert.assertEquals(RankEngine.computeRow(table, 42, RankStrategy.ORDINAL, 100), 41);
+		Assert.assertEquals(RankEngine.computeRow(table, 1000, RankStrategy.ORDINAL, 100), table.getNumDocs());
+	}
+	
+	@Test(testName="Method to test merging shard histograms")
+	public void testMerge() {
+		RankTable table = RankTable.create(createCounts(), new SortableIntField(), SolrQuery.ORDER.asc);
+		List<NamedList<? extends Number>> histograms = new ArrayList<NamedList<? extends Number>>();
+		histograms.add(table.toHistogram(-1));
+		histograms.add(table.toHistogram(-1));
+		RankTable merged = RankTable.merge(histograms, new SortableIntField(), SolrQuery.ORDER.asc);
+		Assert.assertEquals(merged.size(), table.size());
+		Assert.assertEquals(merged.getNumDocs(), 2 * table.getNumDocs());
+		for(RankDataSet testData : RankDataSet.values()){
+			int pos = merged.indexOf(testData.getRankKey());
+			Assert.assertEquals(merged.getBetter(pos), 2 * table.getBetter(table.indexOf(testData.getRankKey())));
+		}
+		//Histogram stops at the value covering the requested documents
+		Assert.assertEquals(table.toHistogram(table.getCount(0)).size(), 1);
+		Assert.assertEquals(table.toHistogram(table.getCount(0) + 1).size(), 2);
+	}
+	
+	@Test(testName="Method to test RankTable ordering of numeric values")
+	public void testNumeric() {
+		NamedList<Number> counts = new NamedList<Number>();
+		counts.add("10", 1);
+		counts.add("9", 2);
+		counts.add("-2.5", 3);
+		counts.add("0.75", 4);
+		RankTable floats = RankTable.create(counts, new TrieFloatField(), SolrQuery.ORDER.asc);
+		Assert.assertTrue(floats.isNumeric());
+		Assert.assertEquals(floats.getValue(0), "-2.5");
+		Assert.assertEquals(floats.getValue(3), "10.0");
+		Assert.assertEquals(floats.getBetter(floats.indexOf("9")), 7);
+		Assert.assertEquals(floats.indexOf("9.5"), -1);
+		Assert.assertEquals(floats.indexOf("abc"), -1);
+		
+		RankTable desc = RankTable.create(counts, new TrieFloatField(), SolrQuery.ORDER.desc);
+		Assert.assertEquals(desc.getValue(0), "10.0");
+		Assert.assertEquals(desc.getBetter(desc.indexOf("-2.5")), 7);
+		
+		counts.remove(3);
+		counts.remove(2);
+		counts.add("-3", 3);
+		RankTable ints = RankTable.create(counts, new IntField(), SolrQuery.ORDER.asc);
+		Assert.assertEquals(ints.getValue(0), "-3");
+		Assert.assertEquals(ints.getValue(1), "9");
+		Assert.assertEquals(ints.getBetter(ints.indexOf("10")), 5);
+	}
+	
+	@Test(testName="Method to test memory mapped RankTable snapshots")
+	public void testSnapshot() throws IOException {
+		NamedList<Number> floatCounts = new NamedList<Number>();
+		floatCounts.add("10", 1);
+		floatCounts.add("-2.5", 3);
+		floatCounts.add("0.75", 4);
+		assertSnapshot(createCounts(), new SortableIntField());
+		assertSnapshot(floatCounts, new TrieFloatField());
+		File file = File.createTempFile("rank", ".tmp");
+		try {
+			RankSnapshot.load(file, new SortableIntField());
+			Assert.fail("Empty snapshot loaded");
+		} catch (IOException e) {
+			//Incomplete snapshots are rejected
+		} finally {
+			file.delete();
+		}
+	}
+	
+	private static void assertSnapshot(NamedList<Number> counts, FieldType fieldType) throws IOException {
+		File dir = new File(System.getProperty("java.io.tmpdir"));
+		File file = RankSnapshot.getFile(dir, "TEST", 7);
+		Assert.assertTrue(RankSnapshot.isFile(file, "TEST"));
+		Assert.assertFalse(RankSnapshot.isFile(file, "TES"));
+		try {
+			RankSnapshot.write(file, RankTable.create(counts, fieldType, SolrQuery.ORDER.asc), 7);
+			RankSnapshot snapshot = RankSnapshot.load(file, fieldType);
+			Assert.assertEquals(snapshot.getGeneration(), 7);
+			for(SolrQuery.ORDER order : SolrQuery.ORDER.values()){
+				RankTable table = RankTable.create(counts, fieldType, order);
+				RankTable mapped = snapshot.getTable(order);
+				Assert.assertTrue(RankSnapshot.isMapped(mapped));
+				Assert.assertEquals(mapped.size(), table.size());
+				Assert.assertEquals(mapped.getNumDocs(), table.getNumDocs());
+				for(int pos = 0; pos < table.size(); pos++){
+					Assert.assertEquals(mapped.getValue(pos), table.getValue(pos));
+					Assert.assertEquals(mapped.getCount(pos), table.getCount(pos));
+					Assert.assertEquals(mapped.getBetter(pos), table.getBetter(pos));
+					Assert.assertEquals(mapped.indexOf(table.getValue(pos)), pos);
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	private static RankSketch createSketch(RankTable table, double epsilon) {
+		RankSketch.Builder builder = RankSketch.builder(new SortableIntField(), table.getNumDocs(), epsilon);
+		for(int i = 0; i < table.size(); i++){
+			builder.add(table.getTerm(i), table.getCount(i));
+		}
+		return builder.build();
+	}
+	
+	private static NamedList<Number> createCounts() {
+		NamedList<Number> counts = new NamedList<Number>();
+		for(RankDataSet data : RankDataSet.values()){
+			counts.add(data.getRankKey(), data.getRankValue());
+		}
+		counts.add("1000", 0);
+		return counts;
+	}
+}
@@ -0,0 +1,209 @@
+package com.sn.solr.plugin.rank.test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.sn.solr.plugin.common.SolrHelper;
+import com.sn.solr.plugin.comp.RankComponent;
+import com.sn.solr.plugin.rank.RankStrategy;
+import com.sn.solr.plugin.rank.RankTable;
+import com.sn.solr.plugin.rank.RankTableKey;
+import com.sn.solr.plugin.rank.SegmentHistogram;
+import com.sn.solr.plugin.rank.data.RankTestCore;
+
+public class SegmentHistogramTest {
+
+	private static final RankTableKey KEY = new RankTableKey("SCORE", SolrQuery.ORDER.asc, new MatchAllDocsQuery(), null);
+
+	private RankTestCore core;
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		core = new RankTestCore("histogram").index();
+	}
+
+	@AfterClass
+	public void tearDown() {
+		core.close();
+	}
+
+	@Test(testName="Method to test reusing & adjusting segment histograms of the rank cache across commits")
+	public void testRegeneration() throws Exception {
+		RankTable table = getRankTable();
+		List<SegmentHistogram> histograms = table.getHistograms();
+		Assert.assertEquals(histograms.size(), 2);
+		Assert.assertEquals(table.getNumDocs(), core.getIds().size());
+
+		//A new segment is counted, the histograms of the others are reused
+		core.getServer().add(RankTestCore.createDoc(core.getIds().size(), 32));
+		core.getServer().commit();
+		RankTable added = getCachedRankTable();
+		Assert.assertEquals(added.getHistograms().size(), 3);
+		Assert.assertSame(added.getHistograms().get(0), histograms.get(0));
+		Assert.assertSame(added.getHistograms().get(1), histograms.get(1));
+		Assert.assertEquals(added.getNumDocs(), table.getNumDocs() + 1);
+		Assert.assertEquals(added.getCount(added.indexOf("032")), table.getCount(table.indexOf("032")) + 1);
+
+		//A deletion in the first segment adjusts its histogram only
+		String deleted = core.getIds().get(0);
+		String value = String.format("%03d", core.getScore(deleted));
+		core.getServer().deleteById(deleted);
+		core.getServer().commit();
+		RankTable adjusted = getCachedRankTable();
+		Assert.assertEquals(adjusted.getHistograms().size(), 3);
+		Assert.assertNotSame(adjusted.getHistograms().get(0), histograms.get(0));
+		Assert.assertSame(adjusted.getHistograms().get(1), histograms.get(1));
+		Assert.assertEquals(adjusted.getNumDocs(), added.getNumDocs() - 1);
+		int pos = added.indexOf(value);
+		if(added.getCount(pos) == 1) {
+			Assert.assertTrue(adjusted.indexOf(value) < 0);
+			Assert.assertEquals(adjusted.size(), added.size() - 1);
+		} else {
+			Assert.assertEquals(adjusted.getCount(adjusted.indexOf(value)), added.getCount(pos) - 1);
+		}
+		//Adjusted counts match a fresh count of the searcher
+		assertCounts(adjusted);
+
+		//A further deletion is adjusted against the deletions kept by the adjusted histogram
+		String other = core.getIds().get(1);
+		for(int i = 2; core.getScore(other).equals(core.getScore(deleted)); i++) {
+			other = core.getIds().get(i);
+		}
+		core.getServer().deleteById(other);
+		core.getServer().commit();
+		RankTable readjusted = getCachedRankTable();
+		Assert.assertNotSame(readjusted.getHistograms().get(0), adjusted.getHistograms().get(0));
+		Assert.assertSame(readjusted.getHistograms().get(1), histograms.get(1));
+		Assert.assertEquals(readjusted.getNumDocs(), added.getNumDocs() - 2);
+		assertCounts(readjusted);
+	}
+
+	private void assertCounts(RankTable table) throws Exception {
+		RankTable counted = createRankTable();
+		Assert.assertEquals(table.size(), counted.size());
+		for(int i = 0; i < counted.size(); i++) {
+			Assert.assertEquals(table.getTerm(i), counted.getTerm(i));
+			Assert.assertEquals(table.getCount(i), counted.getCount(i));
+		}
+	}
+
+	@Test(testName="Method to test counting segment histograms in parallel")
+	public void testParallelCount() throws Exception {
+		ThreadPoolExecutor executor = SegmentHistogram.createExecutor(4);
+		RefCounted<SolrIndexSearcher> ref = core.getCore().getSearcher();
+		try {
+			SolrIndexSearcher searcher = ref.get();
+			for(String field : new String[]{"SCORE", "TSCORE", "FSCORE"}) {
+				for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+					for(String body : new String[]{null, "odd"}) {
+						List<Query> filters = body == null ? null : Collections.<Query>singletonList(new TermQuery(new Term("BODY", body)));
+						RankTableKey key = new RankTableKey(field, order, new MatchAllDocsQuery(), filters);
+						DocSet docs = searcher.getDocSet(new MatchAllDocsQuery(), searcher.getDocSet(key.getFilters()));
+						RankTable serial = SegmentHistogram.getRankTable(searcher, key, docs, null, null);
+						RankTable parallel = SegmentHistogram.getRankTable(searcher, key, docs, null, executor);
+						Assert.assertEquals(parallel.size(), serial.size());
+						Assert.assertEquals(parallel.getNumDocs(), serial.getNumDocs());
+						Assert.assertEquals(parallel.getNumDocs(), docs.size());
+						for(int i = 0; i < serial.size(); i++) {
+							Assert.assertEquals(parallel.getTerm(i), serial.getTerm(i));
+							Assert.assertEquals(parallel.getCount(i), serial.getCount(i));
+						}
+					}
+				}
+			}
+		} finally {
+			ref.decref();
+			executor.shutdown();
+		}
+	}
+
+	@Test(testName="Method to test ranking on the count threads of the component without a rank cache")
+	public void testComponentThreads() throws Exception {
+		RankTestCore threads = new RankTestCore("threads", "solrconfig-threads.xml").index();
+		try {
+			for(SolrQuery.ORDER order : SolrQuery.ORDER.values()) {
+				List<String> ids = threads.getIds(order, null);
+				QueryResponse rsp = threads.query("qt", "/rank", CommonParams.SORT, "SCORE " + order + ",ID asc", CommonParams.START, "40", 
+						CommonParams.ROWS, "13", CommonParams.FL, "ID,rank", RankComponent.PARAM_RANK_FIELD, "SCORE", RankComponent.PARAM_RANK_STRATEGY, "dense");
+				//Counted by the component, no facet pass
+				Assert.assertNull(rsp.getFacetFields());
+				int row = 40;
+				for(SolrDocument doc : rsp.getResults()) {
+					Assert.assertEquals(doc.getFieldValue("ID"), ids.get(row));
+					RankComponentTest.assertRank(doc.getFieldValue("rank"), threads.getRank(ids, row++, RankStrategy.DENSE));
+				}
+				Assert.assertEquals(row, 53);
+			}
+			Assert.assertTrue(isCountThreadAlive());
+		} finally {
+			threads.close();
+		}
+		//The close hook stops the count threads of the component
+		for(int i = 0; i < 50 && isCountThreadAlive(); i++) {
+			Thread.sleep(100);
+		}
+		Assert.assertFalse(isCountThreadAlive());
+	}
+
+	private static boolean isCountThreadAlive() {
+		for(Thread thread : Thread.getAllStackTraces().keySet()) {
+			if(thread.getName().startsWith("rank-count-") && thread.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private RankTable getRankTable() throws Exception {
+		RefCounted<SolrIndexSearcher> ref = core.getCore().getSearcher();
+		try {
+			SolrIndexSearcher searcher = ref.get();
+			return SolrHelper.getRankTable(searcher, KEY, searcher.getDocSet(KEY.getQuery()));
+		} finally {
+			ref.decref();
+		}
+	}
+
+	/**
+	 * Returns the table regenerated into the rank cache of the current searcher.
+	 */
+	@SuppressWarnings("unchecked")
+	private RankTable getCachedRankTable() throws Exception {
+		RefCounted<SolrIndexSearcher> ref = core.getCore().getSearcher();
+		try {
+			SolrCache<RankTableKey, RankTable> cache = ref.get().getCache(SolrHelper.RANK_CACHE);
+			RankTable table = cache.get(KEY);
+			Assert.assertNotNull(table, "Table not regenerated");
+			return table;
+		} finally {
+			ref.decref();
+		}
+	}
+
+	private RankTable createRankTable() throws Exception {
+		RefCounted<SolrIndexSearcher> ref = core.getCore().getSearcher();
+		try {
+			return SolrHelper.createRankTable(ref.get(), KEY);
+		} finally {
+			ref.decref();
+		}
+	}
+}